@@ -0,0 +1,72 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import packet.TimestampFormatter;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TimestampBenchmark {
+
+    private static final String PATTERN = "dd/MM/yyyy HH:mm";
+    private static final ThreadLocal<SimpleDateFormat> THREAD_LOCAL_FORMAT =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat(PATTERN));
+    private static final DateTimeFormatter DATE_TIME_FORMATTER =
+            DateTimeFormatter.ofPattern(PATTERN).withZone(ZoneId.systemDefault());
+
+    private final SimpleDateFormat perHandlerFormat = new SimpleDateFormat(PATTERN);
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter();
+
+    @Benchmark
+    public String simpleDateFormatPerHandler() {
+        return perHandlerFormat.format(new Date());
+    }
+
+    @Benchmark
+    public String simpleDateFormatPerCall() {
+        return new SimpleDateFormat(PATTERN).format(new Date());
+    }
+
+    @Benchmark
+    public String simpleDateFormatThreadLocal() {
+        return THREAD_LOCAL_FORMAT.get().format(new Date());
+    }
+
+    @Benchmark
+    public String dateTimeFormatter() {
+        return DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(System.currentTimeMillis()));
+    }
+
+    /**
+     * What the client does at render time: consecutive messages hit the cached minute.
+     */
+    @Benchmark
+    public String timestampFormatter() {
+        return timestampFormatter.format(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public long epochMillis() {
+        return System.currentTimeMillis();
+    }
+}
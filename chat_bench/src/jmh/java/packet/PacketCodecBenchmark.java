@@ -0,0 +1,100 @@
+package packet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PacketCodecBenchmark {
+
+    @Param({"0", "100"})
+    private int users;
+
+    private Packet packet;
+    private byte[] json;
+    private byte[] binary;
+    private byte[] deflated;
+    private PacketDecoder jsonDecoder;
+    private PacketDecoder binaryDecoder;
+    private PacketDecoder deflateDecoder;
+
+    @Setup
+    public void setUp() {
+        packet = new Packet();
+        packet.setType(users == 0 ? PacketType.CHAT : PacketType.LOGIN);
+        packet.setTimestamp(System.currentTimeMillis());
+        packet.setNickname("nickname");
+        packet.setMessage("Привет всем, как дела? Hello everyone, how are you?");
+        if (users > 0) {
+            List<String> usersList = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                usersList.add("user" + i);
+            }
+            packet.setUsers(usersList);
+        }
+        json = JsonPacketCodec.encode(packet);
+        binary = BinaryPacketCodec.encode(packet);
+        jsonDecoder = new PacketDecoder();
+        binaryDecoder = new PacketDecoder();
+        binaryDecoder.setWireFormat(WireFormat.BINARY);
+        deflated = DeflateCodec.compress(binary);
+        deflateDecoder = new PacketDecoder();
+        deflateDecoder.setWireFormat(WireFormat.BINARY_DEFLATE);
+    }
+
+    @Benchmark
+    public byte[] jsonSerialize() {
+        return JsonPacketCodec.encode(packet);
+    }
+
+    @Benchmark
+    public Packet jsonDeserialize() throws MalformedPacketException {
+        return JsonPacketCodec.decode(json, 0, json.length - 1);
+    }
+
+    @Benchmark
+    public Packet jsonDecode() throws MalformedPacketException {
+        return jsonDecoder.decode(ByteBuffer.wrap(json));
+    }
+
+    @Benchmark
+    public byte[] binarySerialize() {
+        return BinaryPacketCodec.encode(packet);
+    }
+
+    @Benchmark
+    public Packet binaryDeserialize() throws MalformedPacketException {
+        return binaryDecoder.decode(ByteBuffer.wrap(binary));
+    }
+
+    /**
+     * A chat message is below the compression threshold and comes back as is, a roster of 100 users is compressed.
+     */
+    @Benchmark
+    public byte[] deflateSerialize() {
+        return DeflateCodec.compress(binary);
+    }
+
+    @Benchmark
+    public Packet deflateDeserialize() throws MalformedPacketException {
+        return deflateDecoder.decode(ByteBuffer.wrap(deflated));
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import packet.Packet;
+import packet.PacketType;
+import packet.WireFormat;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BroadcastBenchmark {
+
+    private static final String ROOM = "bench";
+    private static final int ROOM_SIZE = 10;
+
+    @Param({"10", "100", "2000"})
+    private int connections;
+
+    @Param({"JSON", "BINARY"})
+    private WireFormat wireFormat;
+
+    private Server server;
+    private SinkConnection sender;
+
+    @Setup
+    public void setUp() {
+        server = new Server(new ServerConfig());
+        for (int i = 0; i < connections; i++) {
+            SinkConnection connection = new SinkConnection(server);
+            connection.setNickname("user" + i);
+            connection.setWireFormat(wireFormat);
+            server.getConnectionsMap().put(connection.getNickname(), connection);
+            server.getRooms().join(Packet.DEFAULT_ROOM, connection);
+            if (i < ROOM_SIZE) {
+                server.getRooms().join(ROOM, connection);
+            }
+            if (sender == null) {
+                sender = connection;
+            }
+        }
+    }
+
+    @Benchmark
+    public long sendPacketToEachConnection() {
+        server.getPacketHandler().handlePacket(sender, newChat(null));
+        return sender.getBytesWritten();
+    }
+
+    /**
+     * Fan-out to a room of ROOM_SIZE members should not depend on the number of connections.
+     */
+    @Benchmark
+    public long sendPacketToRoom() {
+        server.getPacketHandler().handlePacket(sender, newChat(ROOM));
+        return sender.getBytesWritten();
+    }
+
+    /**
+     * A private message costs one lookup by nickname whatever the number of connections.
+     */
+    @Benchmark
+    public long sendPrivate() {
+        Packet packet = newChat(null);
+        packet.setType(PacketType.PRIVATE);
+        packet.setRecipient("user" + (connections - 1));
+        server.getPacketHandler().handlePacket(sender, packet);
+        return sender.getBytesWritten();
+    }
+
+    private Packet newChat(String room) {
+        Packet packet = new Packet();
+        packet.setType(PacketType.CHAT);
+        packet.setTimestamp(System.currentTimeMillis());
+        packet.setNickname(sender.getNickname());
+        packet.setRoom(room);
+        packet.setMessage("Привет всем, как дела? Hello everyone, how are you?");
+        return packet;
+    }
+}
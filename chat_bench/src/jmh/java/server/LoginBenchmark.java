@@ -0,0 +1,85 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import packet.Packet;
+import packet.PacketType;
+import packet.ProtocolFeature;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LoginBenchmark {
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    @Param({"0", "1000"})
+    private int onlineUsers;
+
+    private Server server;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final String prefix = "bench" + THREAD_IDS.getAndIncrement() + "-";
+        private int counter;
+
+        String nextNickname() {
+            return prefix + counter++;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        server = new Server(new ServerConfig());
+        for (int i = 0; i < onlineUsers; i++) {
+            SinkConnection connection = new SinkConnection(server);
+            connection.setNickname("user" + i);
+            connection.setFeatures(Arrays.asList(ProtocolFeature.BINARY, ProtocolFeature.PRESENCE));
+            server.getConnectionsMap().put(connection.getNickname(), connection);
+        }
+    }
+
+    @Benchmark
+    public long loginAndLogout(ThreadState state) {
+        SinkConnection connection = new SinkConnection(server);
+        Packet login = new Packet();
+        login.setType(PacketType.LOGIN);
+        login.setTimestamp(System.currentTimeMillis());
+        login.setNickname(state.nextNickname());
+        login.setFeatures(Arrays.asList(ProtocolFeature.BINARY, ProtocolFeature.PRESENCE));
+        server.getPacketHandler().handlePacket(connection, login);
+        server.getPacketHandler().handleDisconnect(connection);
+        return connection.getBytesWritten();
+    }
+
+    @Benchmark
+    public long contendedNickname() {
+        SinkConnection connection = new SinkConnection(server);
+        Packet login = new Packet();
+        login.setType(PacketType.LOGIN);
+        login.setTimestamp(System.currentTimeMillis());
+        login.setNickname("contended");
+        server.getPacketHandler().handlePacket(connection, login);
+        server.getPacketHandler().handleDisconnect(connection);
+        return connection.getBytesWritten();
+    }
+}
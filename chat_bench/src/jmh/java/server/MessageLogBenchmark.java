@@ -0,0 +1,69 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import packet.Packet;
+import packet.PacketType;
+import packet.WireFormat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageLogBenchmark {
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private Path directory;
+    private MessageLogSegment segment;
+    private byte[] payload;
+    private long sequence;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("message-log-bench");
+        segment = MessageLogSegment.create(directory, 1, SEGMENT_BYTES);
+        Packet packet = new Packet();
+        packet.setType(PacketType.CHAT);
+        packet.setTimestamp(System.currentTimeMillis());
+        packet.setNickname("nickname");
+        packet.setMessage("Привет всем, как дела? Hello everyone, how are you?");
+        payload = WireFormat.BINARY.encode(packet);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public boolean appendToSegment() throws IOException {
+        sequence++;
+        if (!segment.append(sequence, System.currentTimeMillis(), payload)) {
+            segment.delete();
+            segment = MessageLogSegment.create(directory, sequence, SEGMENT_BYTES);
+            return segment.append(sequence, System.currentTimeMillis(), payload);
+        }
+        return true;
+    }
+}
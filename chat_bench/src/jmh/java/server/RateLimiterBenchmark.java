@@ -0,0 +1,68 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import packet.Packet;
+import packet.PacketType;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every thread sends as its own nickname from the same address, all of them through the one global bucket. Limits
+ * are high enough that nothing is dropped, so this measures the cost of the check under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RateLimiterBenchmark {
+
+    private final AtomicInteger senders = new AtomicInteger();
+    private Server server;
+    private RateLimiter rateLimiter;
+
+    @Setup
+    public void setUp() {
+        ServerConfig config = new ServerConfig();
+        config.setRateLimitNicknamePerSecond(Integer.MAX_VALUE);
+        config.setRateLimitAddressPerSecond(Integer.MAX_VALUE);
+        config.setRateLimitGlobalPerSecond(Integer.MAX_VALUE);
+        config.setRateLimitGlobalBurst(Integer.MAX_VALUE);
+        server = new Server(config);
+        rateLimiter = server.getRateLimiter();
+    }
+
+    @State(Scope.Thread)
+    public static class Sender {
+
+        private SinkConnection connection;
+        private Packet packet;
+
+        @Setup
+        public void setUp(RateLimiterBenchmark benchmark) {
+            connection = new SinkConnection(benchmark.server);
+            connection.setNickname("user" + benchmark.senders.incrementAndGet());
+            packet = new Packet();
+            packet.setType(PacketType.CHAT);
+            packet.setMessage("message");
+        }
+    }
+
+    @Benchmark
+    public long acquire(Sender sender) {
+        return rateLimiter.acquire(sender.connection, sender.packet);
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SearchIndexBenchmark {
+
+    private static final int VOCABULARY = 50_000;
+    private static final int WORDS_PER_MESSAGE = 8;
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000000"})
+    private int messages;
+
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new SearchIndex(100);
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int sequence = 1; sequence <= messages; sequence++) {
+            text.setLength(0);
+            for (int i = 0; i < WORDS_PER_MESSAGE; i++) {
+                text.append("word").append(zipf(random)).append(' ');
+            }
+            index.add(sequence, text.toString());
+        }
+    }
+
+    @Benchmark
+    public long commonWord() {
+        return index.search("word1", 0, PAGE_SIZE, sequence -> true);
+    }
+
+    @Benchmark
+    public long rareWord() {
+        return index.search("word40000", 0, PAGE_SIZE, sequence -> true);
+    }
+
+    @Benchmark
+    public long twoCommonWords() {
+        return index.search("word1 word2", 0, PAGE_SIZE, sequence -> true);
+    }
+
+    @Benchmark
+    public long commonWordFilteredOut() {
+        // Every match is in a room the user is not in, the page gives up after its match limit
+        return index.search("word1", 0, PAGE_SIZE, sequence -> false);
+    }
+
+    /**
+     * Word frequencies of a natural language roughly follow Zipf's law.
+     */
+    private static int zipf(Random random) {
+        return (int) Math.min(VOCABULARY - 1, Math.exp(random.nextDouble() * Math.log(VOCABULARY)) - 1);
+    }
+}
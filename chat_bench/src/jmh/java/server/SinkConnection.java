@@ -0,0 +1,53 @@
+package server;
+
+import packet.WireFormat;
+
+class SinkConnection extends AbstractConnection {
+
+    private final OutboundQueue outboundQueue;
+    private WireFormat wireFormat = WireFormat.JSON;
+    private long bytesWritten;
+
+    SinkConnection(Server server) {
+        super(server.getMetrics());
+        outboundQueue = server.newOutboundQueue();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        task.run();
+    }
+
+    @Override
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    @Override
+    void enqueue(EncodedPacket packet, boolean mayBlock) {
+        bytesWritten += packet.size(wireFormat);
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
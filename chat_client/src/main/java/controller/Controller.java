@@ -2,6 +2,8 @@ package controller;
 
 import model.ChatClient;
 
+import java.util.concurrent.CompletableFuture;
+
 public class Controller {
 
     private ChatClient model;
@@ -10,12 +12,28 @@ public class Controller {
         model = m;
     }
 
-    public void connectToServer(String ipAddress, int port, String nickname) {
-        model.launchChatClient(ipAddress, port, nickname);
+    public CompletableFuture<Boolean> connectToServer(String ipAddress, int port, String nickname) {
+        return model.launchChatClient(ipAddress, port, nickname);
+    }
+
+    public void sendUserMessage(String room, String value) {
+        model.sendUserMessage(room, value);
+    }
+
+    public void sendPrivateMessage(String recipient, String value) {
+        model.sendPrivateMessage(recipient, value);
+    }
+
+    public void search(String query) {
+        model.search(query);
+    }
+
+    public void joinRoom(String room) {
+        model.joinRoom(room);
     }
 
-    public void sendUserMessage(String value) {
-        model.sendUserMessage(value);
+    public void leaveRoom(String room) {
+        model.leaveRoom(room);
     }
 
     public void disconnect() {
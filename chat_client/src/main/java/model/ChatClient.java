@@ -2,56 +2,133 @@ package model;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.gson.Gson;
 import packet.Packet;
+import packet.PacketReader;
 import packet.PacketType;
+import packet.ProtocolFeature;
+import packet.TimestampFormatter;
+import packet.WireFormat;
 
-import java.io.*;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 public class ChatClient implements Observed {
 
     private static final Logger log = LoggerFactory.getLogger(ChatClient.class);
-    private static final Gson GSON = new Gson();
     private static final int ATTEMPTS_TO_CONNECT = 5;
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm");
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int LOGIN_TIMEOUT_MILLIS = 10000;
+    private static final int SEND_QUEUE_CAPACITY = 1024;
+    // Queued after LOGOUT, the writer closes the connection once everything before it is sent
+    private static final Packet CLOSE_CONNECTION = new Packet();
+    private static final String SERVER_UNREACHABLE = "Не удалось подключиться к серверу. Проверьте имя и порт сервера.";
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter();
     private List<Observer> observers;
     private String serverHost;
     private int serverPort;
-    private Socket socket;
-    private Thread readerThread;
-    private BufferedReader reader;
-    private PrintWriter writer;
-    private List<String> usersList;
-    private String nickname;
-    private boolean isConnected;
+    private volatile Socket socket;
+    private PacketReader reader;
+    private OutputStream outputStream;
+    private WireFormat wireFormat;
+    // Packets of the current connection waiting for its writer thread
+    private volatile BlockingQueue<Packet> sendQueue;
+    private Set<String> users;
+    private long rosterVersion;
+    // Sequence of the last CHAT packet shown, sent on login so the server replays what was missed while disconnected
+    private long lastSequence;
+    // Joined rooms, rejoined on reconnect
+    private Set<String> rooms;
+    // Sent private messages waiting for their acknowledgements, which come back in the order they were sent
+    private Queue<Packet> pendingPrivateMessages;
+    // Query of the last search and the sequence its next page starts below, 0 if there are no more pages
+    private volatile String searchQuery;
+    private volatile long searchNextSequence;
+    private int searchHits;
+    private volatile String nickname;
+    private volatile boolean isConnected;
+    // Suggested by SERVER_SHUTDOWN, waited before the next reconnect
+    private volatile long reconnectDelayMillis;
+    // Thread running the current connection, one left over from a previous connection must not reconnect
+    private volatile Thread ioThread;
 
     public ChatClient() {
         observers = new ArrayList<>();
-        usersList = new ArrayList<>();
+        users = new HashSet<>();
+        rooms = new LinkedHashSet<>();
+        rooms.add(Packet.DEFAULT_ROOM);
+        pendingPrivateMessages = new ConcurrentLinkedQueue<>();
     }
 
-    public void launchChatClient(String serverName, int serverPort, String nickname) {
+    @Override
+    public CompletableFuture<Boolean> launchChatClient(String serverName, int serverPort, String nickname) {
         this.serverHost = serverName;
         this.serverPort = serverPort;
+        for (String room : rooms) {
+            if (!room.equals(Packet.DEFAULT_ROOM)) {
+                notifyRoomLeft(room);
+            }
+        }
+        rooms.clear();
+        rooms.add(Packet.DEFAULT_ROOM);
+        lastSequence = 0;
 
-        if (connect()) {
-            login(nickname);
-        } else {
-            String systemMessage = "Не удалось подключиться к серверу. Проверьте имя и порт сервера.";
-            notifyNewConnectionRejected(systemMessage);
+        CompletableFuture<Boolean> loginResult = new CompletableFuture<>();
+        Thread thread = new Thread(() -> runConnection(nickname, loginResult), "chat-client-io");
+        ioThread = thread;
+        thread.start();
+        return loginResult;
+    }
+
+    /**
+     * Connects, logs in and then reads packets on the I/O thread, reconnecting when the connection is lost.
+     */
+    private void runConnection(String nickname, CompletableFuture<Boolean> loginResult) {
+        if (!connect()) {
+            notifyNewConnectionRejected(SERVER_UNREACHABLE);
+            loginResult.completeExceptionally(new ConnectException("Failed to connect to " + serverHost + ":" + serverPort));
+            return;
+        }
+        if (!login(nickname, loginResult)) {
+            return;
+        }
+        readPackets();
+        // Still connected unless disconnectCommand was called
+        while (isConnected && ioThread == Thread.currentThread()) {
+            log.error("Connection to server lost.");
+            sendDisconnectMessage();
+            if (!reconnect()) {
+                return;
+            }
+            readPackets();
         }
     }
 
     private boolean connect() {
         try {
-            socket = new Socket(serverHost, serverPort);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream());
+            Socket newSocket = new Socket();
+            newSocket.connect(new InetSocketAddress(serverHost, serverPort), CONNECT_TIMEOUT_MILLIS);
+            socket = newSocket;
+            reader = new PacketReader(newSocket.getInputStream());
+            outputStream = new BufferedOutputStream(newSocket.getOutputStream());
+            wireFormat = WireFormat.JSON;
+            pendingPrivateMessages.clear();
             return true;
         } catch (IOException e) {
             log.error("Failed connect to server.", e);
@@ -59,99 +136,323 @@ public class ChatClient implements Observed {
         return false;
     }
 
-    private void login(String nickname) {
+    /**
+     * @param loginResult completed with the outcome, null when reconnecting
+     */
+    private boolean login(String nickname, CompletableFuture<Boolean> loginResult) {
         Packet request = new Packet();
         request.setType(PacketType.LOGIN);
-        request.setDate(dateFormat.format(new Date()));
         request.setNickname(nickname);
-        String line = GSON.toJson(request);
-        writer.println(line);
-        writer.flush();
+        request.setFeatures(Arrays.asList(ProtocolFeature.BINARY, ProtocolFeature.PRESENCE, ProtocolFeature.DEFLATE,
+                ProtocolFeature.TIMESTAMP));
+        request.setSequence(lastSequence);
+        request.setRooms(new ArrayList<>(rooms));
 
-        String receivedNickname = null;
+        Packet response = null;
+        IOException failure = null;
         try {
-            receivedNickname = reader.readLine();
+            socket.setSoTimeout(LOGIN_TIMEOUT_MILLIS);
+            outputStream.write(wireFormat.encode(request));
+            outputStream.flush();
+            response = reader.read();
+            socket.setSoTimeout(0);
         } catch (IOException e) {
             log.error("Failed server login response.", e);
+            failure = e;
         }
 
-        Packet response = GSON.fromJson(receivedNickname, Packet.class);
+        if (response == null) {
+            closeConnection();
+            notifyNewConnectionRejected(SERVER_UNREACHABLE);
+            if (loginResult != null) {
+                loginResult.completeExceptionally(failure != null ? failure : new EOFException("Connection closed"));
+            }
+            return false;
+        }
         if (response.getType() != PacketType.LOGIN_REJECTED) {
+            wireFormat = WireFormat.negotiated(response);
+            reader.setWireFormat(wireFormat);
             this.nickname = nickname;
             isConnected = true;
-            usersList = response.getUsers();
+            // Empty with deflate, the roster follows in a ROSTER packet
+            users = new HashSet<>(response.getUsers());
+            rosterVersion = response.getRosterVersion();
+            if (lastSequence == 0 || response.getSequence() < lastSequence) {
+                lastSequence = response.getSequence();
+            }
+
+            if (response.getRooms() != null) {
+                for (String room : response.getRooms()) {
+                    if (rooms.add(room)) {
+                        notifyRoomJoined(room);
+                    }
+                }
+            }
 
+            startWriter();
             notifyStatusUpdated(true);
-            notifyMessageReceived(String.format("Вы присоединились к чату под именем %s.", nickname));
-            notifyUsersUpdated(response);
-            startMessageReader();
+            notifyMessageReceived(null, String.format("Вы присоединились к чату под именем %s.", nickname));
+            notifyUsersReset();
+            if (loginResult != null) {
+                loginResult.complete(true);
+            }
+            return true;
+        }
+        closeConnection();
+        String systemMessage;
+        if (loginResult == null) {
+            systemMessage = "Соединение с сервером потеряно. При переподключении кто-то занял ваше имя. " +
+                    "Выберите другое имя и попробуйте подключиться снова.";
         } else {
-            String systemMessage;
+            systemMessage = "Пользователь с данным именем уже зарегистрирован. Выберите другое имя.";
+            loginResult.complete(false);
+        }
+        notifyNewConnectionRejected(systemMessage);
+        return false;
+    }
+
+    private void readPackets() {
+        Socket readerSocket = socket;
+        BlockingQueue<Packet> queue = sendQueue;
+        PacketReader packetReader = reader;
+        try {
+            Packet packet;
+            while ((packet = packetReader.read()) != null) {
+                readPacketData(packet);
+            }
+        } catch (IOException e) {
             if (isConnected) {
-                isConnected = false;
-                systemMessage = "Соединение с сервером потеряно. При переподключении кто-то занял ваше имя. " +
-                        "Выберите другое имя и попробуйте подключиться снова.";
-            } else {
-                systemMessage = "Пользователь с данным именем уже зарегистрирован. Выберите другое имя.";
+                log.error("Failed to listen to server.", e);
             }
-            notifyNewConnectionRejected(systemMessage);
         }
+        closeConnection(readerSocket, queue);
     }
 
-    private void startMessageReader() {
-        readerThread = new Thread(() -> {
-            try {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    readPacketData(line);
-                }
-            } catch (IOException e) {
-                disconnectSocket();
-                if (isConnected) {
-                    log.error("Failed to listen to server.", e);
-                    sendDisconnectMessage();
-                    reconnect();
-                }
+    private void startWriter() {
+        Socket writerSocket = socket;
+        BlockingQueue<Packet> queue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+        OutputStream writerStream = outputStream;
+        WireFormat writerFormat = wireFormat;
+        sendQueue = queue;
+        Thread writer = new Thread(() -> writePackets(writerSocket, queue, writerStream, writerFormat),
+                "chat-client-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes whatever is queued and flushes once per batch, so the callers of sendPacket never wait for the server.
+     */
+    private void writePackets(Socket writerSocket, BlockingQueue<Packet> queue, OutputStream writerStream,
+                              WireFormat writerFormat) {
+        try {
+            while (true) {
+                Packet packet = queue.take();
+                do {
+                    if (packet == CLOSE_CONNECTION) {
+                        writerStream.flush();
+                        writerSocket.close();
+                        return;
+                    }
+                    writerStream.write(writerFormat.encode(packet));
+                } while ((packet = queue.poll()) != null);
+                writerStream.flush();
             }
-        });
-        readerThread.start();
+        } catch (IOException e) {
+            log.error("Failed to send packet to server.", e);
+            closeSocket(writerSocket);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the writer of the current connection and closes it, the reader then fails and ends.
+     */
+    private void closeConnection() {
+        closeConnection(socket, sendQueue);
     }
 
-    private void readPacketData(String line) {
-        Packet packet = GSON.fromJson(line, Packet.class);
-        String date = packet.getDate();
+    private void closeConnection(Socket connectionSocket, BlockingQueue<Packet> queue) {
+        if (queue != null) {
+            if (sendQueue == queue) {
+                sendQueue = null;
+            }
+            queue.clear();
+            queue.offer(CLOSE_CONNECTION);
+        }
+        closeSocket(connectionSocket);
+    }
+
+    private void closeSocket(Socket socketToClose) {
+        try {
+            socketToClose.close();
+        } catch (IOException e) {
+            log.error("Failed to disconnect.", e);
+        }
+    }
+
+    private void readPacketData(Packet packet) {
+        String date = timestampFormatter.format(packet.getTimestamp());
         String user = packet.getNickname();
         String message = packet.getMessage();
         String rxMessage = null;
+        String room = packet.getRoom() != null ? packet.getRoom() : Packet.DEFAULT_ROOM;
         switch (packet.getType()) {
             case LOGIN:
                 rxMessage = String.format("%s %s присоединился к чату.", date, user);
-                notifyUsersUpdated(packet);
+                users = new HashSet<>(packet.getUsers());
+                notifyUsersReset();
                 break;
             case LOGOUT:
                 if (user.equals(nickname)) {
                     break;
                 }
                 rxMessage = String.format("%s %s отключился.", date, user);
-                notifyUsersUpdated(packet);
+                users = new HashSet<>(packet.getUsers());
+                notifyUsersReset();
+                break;
+            case USER_JOINED:
+                rxMessage = String.format("%s %s присоединился к чату.", date, user);
+                applyRosterDelta(packet, true);
+                break;
+            case USER_LEFT:
+                rxMessage = String.format("%s %s отключился.", date, user);
+                applyRosterDelta(packet, false);
+                break;
+            case ROSTER:
+                if (packet.getRosterVersion() >= rosterVersion) {
+                    rosterVersion = packet.getRosterVersion();
+                    users = new HashSet<>(packet.getUsers());
+                    notifyUsersReset();
+                }
                 break;
             case CHAT:
+                if (packet.getSequence() > 0) {
+                    if (packet.getSequence() <= lastSequence) {
+                        break;
+                    }
+                    lastSequence = packet.getSequence();
+                }
                 rxMessage = String.format("%s [%s]: %s", date, user, message);
                 break;
+            case PRIVATE:
+                notifyMessageReceived(null, String.format("%s [%s → вам]: %s", date, user, message));
+                break;
+            case PRIVATE_DELIVERED:
+                Packet delivered = pendingPrivateMessages.poll();
+                if (delivered != null) {
+                    notifyMessageReceived(null, String.format("%s [вы → %s]: %s", date, delivered.getRecipient(),
+                            delivered.getMessage()));
+                }
+                break;
+            case PRIVATE_OFFLINE:
+                pendingPrivateMessages.poll();
+                notifyMessageReceived(null, String.format("%s %s не в сети, сообщение не доставлено.", date,
+                        packet.getRecipient()));
+                break;
+            case SERVER_SHUTDOWN:
+                reconnectDelayMillis = packet.getReconnectDelayMillis();
+                break;
+            case RATE_LIMITED:
+                if (packet.getRecipient() != null) {
+                    pendingPrivateMessages.poll();
+                }
+                notifyMessageReceived(null, String.format("%s Вы отправляете сообщения слишком часто, сообщение не доставлено.",
+                        date));
+                break;
+            case SEARCH_RESULT:
+                searchHits++;
+                // Results of every room are listed in the default one
+                notifyMessageReceived(Packet.DEFAULT_ROOM, String.format("%s [%s] [%s]: %s", date, room, user, message));
+                break;
+            case SEARCH:
+                searchQuery = message;
+                searchNextSequence = packet.getSearchCursor();
+                if (searchHits == 0 && searchNextSequence == 0) {
+                    rxMessage = String.format("По запросу «%s» ничего не найдено.", message);
+                } else if (searchNextSequence > 0) {
+                    rxMessage = String.format("Найдены сообщения по запросу «%s». Отправьте «?», чтобы искать дальше.",
+                            message);
+                } else {
+                    rxMessage = String.format("Других сообщений по запросу «%s» нет.", message);
+                }
+                searchHits = 0;
+                room = Packet.DEFAULT_ROOM;
+                break;
+            case JOIN:
+                if (user.equals(nickname)) {
+                    if (rooms.add(room)) {
+                        notifyRoomJoined(room);
+                    }
+                    rxMessage = String.format("%s Вы вошли в комнату %s.", date, room);
+                } else {
+                    rxMessage = String.format("%s %s вошёл в комнату.", date, user);
+                }
+                break;
+            case PART:
+                if (user.equals(nickname)) {
+                    rooms.remove(room);
+                    notifyRoomLeft(room);
+                } else {
+                    rxMessage = String.format("%s %s покинул комнату.", date, user);
+                }
+                break;
             default:
         }
-        notifyMessageReceived(rxMessage);
+        if (rxMessage != null) {
+            notifyMessageReceived(room, rxMessage);
+        }
     }
 
-    private void reconnect() {
-        String systemMessage = "Соединение с сервером потеряно. Попытка переподключиться...";
-        notifyMessageReceived(systemMessage);
+    private void applyRosterDelta(Packet packet, boolean isJoined) {
+        long version = packet.getRosterVersion();
+        if (version <= rosterVersion) {
+            return;
+        }
+        if (isJoined) {
+            if (users.add(packet.getNickname())) {
+                notifyUserJoined(packet.getNickname());
+            }
+        } else if (users.remove(packet.getNickname())) {
+            notifyUserLeft(packet.getNickname());
+        }
+        if (version != rosterVersion + 1) {
+            log.info("Roster version gap {} -> {}, requesting full roster", rosterVersion, version);
+            Packet request = new Packet();
+            request.setType(PacketType.ROSTER);
+            sendPacket(request);
+        }
+        rosterVersion = version;
+    }
+
+    private boolean reconnect() {
+        String systemMessage;
+        long delayMillis = reconnectDelayMillis;
+        reconnectDelayMillis = 0;
+        if (delayMillis > 0) {
+            systemMessage = String.format("Сервер перезапускается. Переподключение через %d с...",
+                    TimeUnit.MILLISECONDS.toSeconds(delayMillis + 999));
+            notifyMessageReceived(null, systemMessage);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            // Connected again or to another server while waiting
+            if (ioThread != Thread.currentThread()) {
+                return false;
+            }
+        } else {
+            systemMessage = "Соединение с сервером потеряно. Попытка переподключиться...";
+            notifyMessageReceived(null, systemMessage);
+        }
         int attemptsCounter = 0;
         while (attemptsCounter < ATTEMPTS_TO_CONNECT) {
             log.info("Trying to reconnect...");
             if (connect()) {
-                login(nickname);
-                break;
+                return login(nickname, null);
             }
 
             try {
@@ -159,52 +460,104 @@ public class ChatClient implements Observed {
                 attemptsCounter++;
                 if (attemptsCounter == ATTEMPTS_TO_CONNECT) {
                     systemMessage = "Попытки восстановить соединение с сервером исчерпаны.";
-                    notifyMessageReceived(systemMessage);
+                    notifyMessageReceived(null, systemMessage);
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 log.error("Failed to sleep thread.", e);
+                return false;
             }
         }
+        return false;
     }
 
     public void disconnectCommand() {
         sendDisconnectMessage();
-        disconnectSocket();
+        Packet packet = new Packet();
+        packet.setType(PacketType.LOGOUT);
+        sendPacket(packet);
+        BlockingQueue<Packet> queue = sendQueue;
+        if (queue == null || !queue.offer(CLOSE_CONNECTION)) {
+            closeConnection();
+        }
     }
 
     private void sendDisconnectMessage() {
         isConnected = false;
-        notifyMessageReceived("Вы отключились.");
+        notifyMessageReceived(null, "Вы отключились.");
         notifyStatusUpdated(false);
     }
 
-    private void disconnectSocket() {
+    public void sendUserMessage(String room, String value) {
         Packet packet = new Packet();
-        packet.setType(PacketType.LOGOUT);
-        packet.setNickname(nickname);
+        packet.setType(PacketType.CHAT);
+        packet.setRoom(room.equals(Packet.DEFAULT_ROOM) ? null : room);
+        packet.setMessage(value);
         sendPacket(packet);
-        try {
-            socket.close();
-        } catch (IOException e) {
-            log.error("Failed to disconnect.", e);
-            return;
-        }
-        readerThread.interrupt();
     }
 
-    public void sendUserMessage(String value) {
+    public void sendPrivateMessage(String recipient, String value) {
         Packet packet = new Packet();
-        packet.setType(PacketType.CHAT);
+        packet.setType(PacketType.PRIVATE);
+        packet.setRecipient(recipient);
         packet.setMessage(value);
+        pendingPrivateMessages.add(packet);
+        if (!sendPacket(packet)) {
+            pendingPrivateMessages.remove(packet);
+        }
+    }
+
+    /**
+     * Searches the history of the joined rooms, newest first. An empty query continues the last search.
+     */
+    public void search(String query) {
+        long beforeSequence = 0;
+        if (query.isEmpty()) {
+            if (searchQuery == null || searchNextSequence == 0) {
+                notifyMessageReceived(Packet.DEFAULT_ROOM, "Больше результатов поиска нет.");
+                return;
+            }
+            query = searchQuery;
+            beforeSequence = searchNextSequence;
+        }
+        Packet packet = new Packet();
+        packet.setType(PacketType.SEARCH);
+        packet.setMessage(query);
+        packet.setSearchCursor(beforeSequence);
         sendPacket(packet);
     }
-    private void sendPacket(Packet packet) {
-        packet.setDate(dateFormat.format(new Date()));
+
+    public void joinRoom(String room) {
+        Packet packet = new Packet();
+        packet.setType(PacketType.JOIN);
+        packet.setRoom(room);
+        sendPacket(packet);
+    }
+
+    public void leaveRoom(String room) {
+        Packet packet = new Packet();
+        packet.setType(PacketType.PART);
+        packet.setRoom(room);
+        sendPacket(packet);
+    }
+
+    /**
+     * Queues the packet for the writer thread.
+     *
+     * @return false if there is no connection or the server does not keep up and the send queue is full
+     */
+    private boolean sendPacket(Packet packet) {
         packet.setNickname(nickname);
-        String line = GSON.toJson(packet);
-        writer.println(line);
-        writer.flush();
+        BlockingQueue<Packet> queue = sendQueue;
+        if (queue == null) {
+            return false;
+        }
+        if (!queue.offer(packet)) {
+            log.warn("Send queue is full, {} packet dropped", packet.getType());
+            notifyMessageReceived(null, "Сервер не успевает принимать сообщения, сообщение не отправлено.");
+            return false;
+        }
+        return true;
     }
 
     private void notifyNewConnectionRejected(String systemMessage) {
@@ -219,16 +572,39 @@ public class ChatClient implements Observed {
         }
     }
 
-    private void notifyMessageReceived(String value) {
+    private void notifyMessageReceived(String room, String value) {
+        for (Observer observer : observers) {
+            observer.messageReceived(room, value);
+        }
+    }
+
+    private void notifyRoomJoined(String room) {
+        for (Observer observer : observers) {
+            observer.roomJoined(room);
+        }
+    }
+
+    private void notifyRoomLeft(String room) {
+        for (Observer observer : observers) {
+            observer.roomLeft(room);
+        }
+    }
+
+    private void notifyUsersReset() {
+        for (Observer observer : observers) {
+            observer.usersReset(new ArrayList<>(users));
+        }
+    }
+
+    private void notifyUserJoined(String user) {
         for (Observer observer : observers) {
-            observer.messageReceived(value);
+            observer.userJoined(user);
         }
     }
 
-    private void notifyUsersUpdated(Packet packet) {
-        usersList = packet.getUsers();
+    private void notifyUserLeft(String user) {
         for (Observer observer : observers) {
-            observer.usersUpdated(usersList);
+            observer.userLeft(user);
         }
     }
 
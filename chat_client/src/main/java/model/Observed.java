@@ -1,7 +1,17 @@
 package model;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface Observed {
 
+    /**
+     * Connects and logs in on a background I/O thread, observers are notified from that thread.
+     *
+     * @return completed with true when logged in, false when the nickname is taken,
+     * or exceptionally when the server cannot be reached
+     */
+    CompletableFuture<Boolean> launchChatClient(String serverHost, int serverPort, String nickname);
+
     void addObserver(Observer observer);
 
     void removeObserver(Observer observer);
@@ -6,9 +6,23 @@ public interface Observer {
 
     void statusUpdated(boolean value);
 
-    void messageReceived(String value);
+    /**
+     * @param room the room the message belongs to, or null for a system message shown in every room
+     */
+    void messageReceived(String room, String value);
 
-    void usersUpdated(List<String> usersList);
+    void roomJoined(String room);
+
+    void roomLeft(String room);
+
+    /**
+     * Replaces the whole roster, after logging in or a full roster from the server.
+     */
+    void usersReset(List<String> users);
+
+    void userJoined(String user);
+
+    void userLeft(String user);
 
     void newConnectionRejected(String systemMessage);
 }
@@ -4,32 +4,55 @@ import com.intellij.uiDesigner.core.GridConstraints;
 import com.intellij.uiDesigner.core.GridLayoutManager;
 import controller.Controller;
 import model.Observer;
+import packet.Packet;
 
 import javax.swing.*;
-import javax.swing.text.DefaultCaret;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ChatWindow implements Observer {
 
+    // Updates from the reader thread are rendered in batches at most once a frame
+    private static final int FRAME_MILLIS = 16;
+    private static final int HISTORY_LINES = 5000;
     private Controller controller;
     private JFrame frame;
     private JPanel panel;
     private JButton newConnectionButton;
     private JButton disconnectButton;
+    private JButton joinRoomButton;
+    private JButton leaveRoomButton;
     private JButton sendButton;
     private JTextArea inputArea;
-    private JTextArea usersList;
+    private JList<String> usersList;
+    private JTextField usersFilter;
+    private RosterListModel rosterModel;
     private JLabel statusLabel;
-    private JTextArea chatTextArea;
+    private JTabbedPane roomTabs;
+    private Map<String, JList<String>> roomLists;
+    private Queue<RoomUpdate> pendingUpdates;
     private NewConnection newConnection;
     private boolean isRunning;
 
     public ChatWindow(Controller controller) {
         this.controller = controller;
+        roomLists = new LinkedHashMap<>();
+        pendingUpdates = new ConcurrentLinkedQueue<>();
+        addRoomTab(Packet.DEFAULT_ROOM);
+        usersList.setPrototypeCellValue("Ag");
+        usersList.setFixedCellWidth(1);
         frame = new JFrame();
         frame.add(panel);
         frame.setTitle("Чат");
@@ -38,8 +61,79 @@ public class ChatWindow implements Observer {
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
-        ((DefaultCaret) chatTextArea.getCaret()).setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
         addListeners();
+        new Timer(FRAME_MILLIS, e -> renderPendingUpdates()).start();
+    }
+
+    private void addRoomTab(String room) {
+        if (roomLists.containsKey(room)) {
+            return;
+        }
+        JList<String> roomList = new JList<>(new MessageListModel(HISTORY_LINES));
+        // Fixed cell sizes spare the list measuring every line, the rows track the viewport width
+        roomList.setPrototypeCellValue("Ag");
+        roomList.setFixedCellWidth(1);
+        roomList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                setToolTipText(String.valueOf(value));
+                return this;
+            }
+        });
+        JScrollPane scrollPane = new JScrollPane(roomList);
+        scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
+        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        roomLists.put(room, roomList);
+        roomTabs.addTab(room, scrollPane);
+    }
+
+    private void removeRoomTab(String room) {
+        JList<String> roomList = roomLists.remove(room);
+        if (roomList != null) {
+            roomTabs.remove(SwingUtilities.getAncestorOfClass(JScrollPane.class, roomList));
+        }
+    }
+
+    /**
+     * Drains the updates queued since the last frame and appends every room's new lines in one model event.
+     */
+    private void renderPendingUpdates() {
+        Map<String, List<String>> batches = new LinkedHashMap<>();
+        RoomUpdate update;
+        while ((update = pendingUpdates.poll()) != null) {
+            if (update.kind == RoomUpdate.Kind.JOINED) {
+                addRoomTab(update.room);
+                roomTabs.setSelectedIndex(roomTabs.indexOfTab(update.room));
+            } else if (update.kind == RoomUpdate.Kind.LEFT) {
+                removeRoomTab(update.room);
+                batches.remove(update.room);
+            } else if (update.room == null) {
+                for (String room : roomLists.keySet()) {
+                    batches.computeIfAbsent(room, key -> new ArrayList<>()).add(update.text);
+                }
+            } else if (roomLists.containsKey(update.room)) {
+                batches.computeIfAbsent(update.room, key -> new ArrayList<>()).add(update.text);
+            }
+        }
+        for (Map.Entry<String, List<String>> batch : batches.entrySet()) {
+            JList<String> roomList = roomLists.get(batch.getKey());
+            JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, roomList);
+            JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+            // Keep scrolling with new messages unless the user has scrolled up to read
+            boolean isFollowing = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+            ((MessageListModel) roomList.getModel()).addAll(batch.getValue());
+            if (isFollowing) {
+                scrollPane.validate();
+                scrollBar.setValue(scrollBar.getMaximum());
+            }
+        }
+    }
+
+    private String selectedRoom() {
+        int index = roomTabs.getSelectedIndex();
+        return index < 0 ? Packet.DEFAULT_ROOM : roomTabs.getTitleAt(index);
     }
 
     private void addListeners() {
@@ -68,9 +162,69 @@ public class ChatWindow implements Observer {
             if (message.equals("")) {
                 return;
             }
-            controller.sendUserMessage(message);
+            // "@nickname text" goes to that user only, "?words" searches the history and "?" shows more results
+            int recipientEnd = message.indexOf(' ');
+            if (message.startsWith("?")) {
+                controller.search(message.substring(1).trim());
+            } else if (message.startsWith("@") && recipientEnd > 1) {
+                controller.sendPrivateMessage(message.substring(1, recipientEnd), message.substring(recipientEnd + 1));
+            } else {
+                controller.sendUserMessage(selectedRoom(), message);
+            }
             inputArea.setText("");
         });
+
+        joinRoomButton.addActionListener(e -> {
+            if (!isRunning) {
+                return;
+            }
+            String room = JOptionPane.showInputDialog(frame, "Название комнаты:", "Войти в комнату",
+                    JOptionPane.PLAIN_MESSAGE);
+            if (room == null || room.trim().isEmpty()) {
+                return;
+            }
+            if (roomLists.containsKey(room.trim())) {
+                roomTabs.setSelectedIndex(roomTabs.indexOfTab(room.trim()));
+                return;
+            }
+            controller.joinRoom(room.trim());
+        });
+
+        usersFilter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                rosterModel.setFilter(usersFilter.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                rosterModel.setFilter(usersFilter.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
+        // Double click on a user starts a private message
+        usersList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                String user = usersList.getSelectedValue();
+                if (e.getClickCount() == 2 && user != null) {
+                    inputArea.setText("@" + user + " ");
+                    inputArea.requestFocusInWindow();
+                }
+            }
+        });
+
+        leaveRoomButton.addActionListener(e -> {
+            String room = selectedRoom();
+            if (!isRunning || room.equals(Packet.DEFAULT_ROOM)) {
+                return;
+            }
+            controller.leaveRoom(room);
+        });
     }
 
     private void disconnect() {
@@ -82,34 +236,81 @@ public class ChatWindow implements Observer {
 
     @Override
     public void statusUpdated(boolean value) {
-        isRunning = value;
-        if (isRunning) {
-            statusLabel.setText("онлайн");
-            newConnection.setConfirmation(true);
-        } else {
-            statusLabel.setText("офлайн");
-            usersList.setText("");
-        }
+        SwingUtilities.invokeLater(() -> {
+            isRunning = value;
+            if (isRunning) {
+                statusLabel.setText("онлайн");
+            } else {
+                statusLabel.setText("офлайн");
+                rosterModel.reset(Collections.emptyList());
+            }
+        });
+    }
+
+    @Override
+    public void messageReceived(String room, String value) {
+        pendingUpdates.add(new RoomUpdate(RoomUpdate.Kind.MESSAGE, room, value));
     }
 
+    /**
+     * Room changes go through the same queue as the messages, so they are rendered in the order they happened.
+     */
     @Override
-    public void messageReceived(String value) {
-        chatTextArea.append(value + System.lineSeparator());
+    public void roomJoined(String room) {
+        pendingUpdates.add(new RoomUpdate(RoomUpdate.Kind.JOINED, room, null));
     }
 
     @Override
-    public void usersUpdated(List<String> users) {
-        usersList.setText("");
-        Collections.sort(users);
-        for (String line : users) {
-            usersList.append(line + System.lineSeparator());
-        }
+    public void roomLeft(String room) {
+        pendingUpdates.add(new RoomUpdate(RoomUpdate.Kind.LEFT, room, null));
+    }
+
+    @Override
+    public void usersReset(List<String> users) {
+        SwingUtilities.invokeLater(() -> rosterModel.reset(users));
+    }
+
+    @Override
+    public void userJoined(String user) {
+        SwingUtilities.invokeLater(() -> rosterModel.add(user));
+    }
+
+    @Override
+    public void userLeft(String user) {
+        SwingUtilities.invokeLater(() -> rosterModel.remove(user));
     }
 
     @Override
     public void newConnectionRejected(String systemMessage) {
-        JOptionPane.showMessageDialog(new JPanel(), systemMessage, "Ошибка!", JOptionPane.INFORMATION_MESSAGE);
-        newConnection.setConfirmation(false);
+        SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(new JPanel(), systemMessage, "Ошибка!", JOptionPane.INFORMATION_MESSAGE));
+    }
+
+    /**
+     * Called by the GUI designer code before the form is laid out, while the fields are not initialized yet.
+     */
+    private void createUIComponents() {
+        rosterModel = new RosterListModel();
+        usersList = new JList<>(rosterModel);
+    }
+
+    private static final class RoomUpdate {
+
+        enum Kind {
+            MESSAGE,
+            JOINED,
+            LEFT
+        }
+
+        private final Kind kind;
+        private final String room;
+        private final String text;
+
+        private RoomUpdate(Kind kind, String room, String text) {
+            this.kind = kind;
+            this.room = room;
+            this.text = text;
+        }
     }
 
     {
@@ -127,47 +328,53 @@ public class ChatWindow implements Observer {
      * @noinspection ALL
      */
     private void $$$setupUI$$$() {
+        createUIComponents();
         panel = new JPanel();
-        panel.setLayout(new GridLayoutManager(3, 5, new Insets(0, 0, 0, 0), -1, -1));
+        panel.setLayout(new GridLayoutManager(3, 7, new Insets(0, 0, 0, 0), -1, -1));
         panel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10), null));
         final JLabel label1 = new JLabel();
         label1.setText("Cтатус:");
         panel.add(label1, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         newConnectionButton = new JButton();
         newConnectionButton.setText("Новый чат");
-        panel.add(newConnectionButton, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(50, -1), null, 0, false));
+        panel.add(newConnectionButton, new GridConstraints(0, 4, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(50, -1), null, 0, false));
         disconnectButton = new JButton();
         disconnectButton.setText("Отключиться");
-        panel.add(disconnectButton, new GridConstraints(0, 3, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(50, -1), null, 0, false));
+        panel.add(disconnectButton, new GridConstraints(0, 5, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(50, -1), null, 0, false));
         final JLabel label2 = new JLabel();
         label2.setText("Пользователи онлайн");
-        panel.add(label2, new GridConstraints(0, 4, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        panel.add(label2, new GridConstraints(0, 6, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        final JPanel panel1 = new JPanel();
+        panel1.setLayout(new GridLayoutManager(2, 1, new Insets(0, 0, 0, 0), -1, -1));
+        panel.add(panel1, new GridConstraints(1, 6, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, new Dimension(150, -1), null, 0, false));
+        usersFilter = new JTextField();
+        usersFilter.setToolTipText("Поиск по имени");
+        panel1.add(usersFilter, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
         final JScrollPane scrollPane1 = new JScrollPane();
-        panel.add(scrollPane1, new GridConstraints(1, 4, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, new Dimension(150, -1), null, 0, false));
-        usersList = new JTextArea();
-        usersList.setEditable(false);
+        panel1.add(scrollPane1, new GridConstraints(1, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, null, null, 0, false));
         scrollPane1.setViewportView(usersList);
         sendButton = new JButton();
         sendButton.setText("Отправить");
-        panel.add(sendButton, new GridConstraints(2, 4, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        panel.add(sendButton, new GridConstraints(2, 6, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         statusLabel = new JLabel();
         statusLabel.setText("офлайн");
-        panel.add(statusLabel, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(200, -1), null, 0, false));
+        panel.add(statusLabel, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(100, -1), null, 0, false));
         final JScrollPane scrollPane2 = new JScrollPane();
         scrollPane2.setHorizontalScrollBarPolicy(31);
         scrollPane2.setVerticalScrollBarPolicy(22);
-        panel.add(scrollPane2, new GridConstraints(2, 0, 1, 4, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, new Dimension(-1, 70), null, 0, false));
+        panel.add(scrollPane2, new GridConstraints(2, 0, 1, 6, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, new Dimension(-1, 70), null, 0, false));
         inputArea = new JTextArea();
         inputArea.setLineWrap(true);
         inputArea.setWrapStyleWord(true);
         scrollPane2.setViewportView(inputArea);
-        final JScrollPane scrollPane3 = new JScrollPane();
-        scrollPane3.setVerticalScrollBarPolicy(22);
-        panel.add(scrollPane3, new GridConstraints(1, 0, 1, 4, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, new Dimension(-1, 300), null, 0, false));
-        chatTextArea = new JTextArea();
-        chatTextArea.setEditable(false);
-        chatTextArea.setWrapStyleWord(true);
-        scrollPane3.setViewportView(chatTextArea);
+        roomTabs = new JTabbedPane();
+        panel.add(roomTabs, new GridConstraints(1, 0, 1, 6, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_BOTH, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_WANT_GROW, null, new Dimension(-1, 300), null, 0, false));
+        joinRoomButton = new JButton();
+        joinRoomButton.setText("Войти в комнату");
+        panel.add(joinRoomButton, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(50, -1), null, 0, false));
+        leaveRoomButton = new JButton();
+        leaveRoomButton.setText("Покинуть комнату");
+        panel.add(leaveRoomButton, new GridConstraints(0, 3, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(50, -1), null, 0, false));
     }
 
     /**
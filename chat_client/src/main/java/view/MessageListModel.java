@@ -0,0 +1,48 @@
+package view;
+
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * History of a room keeping only the last lines in a ring, so a busy room does not grow without bound.
+ * A batch of lines is added with one event, and the list only renders the rows in view.
+ */
+class MessageListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+    private final String[] lines;
+    private int first;
+    private int size;
+
+    MessageListModel(int capacity) {
+        lines = new String[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return lines[(first + index) % lines.length];
+    }
+
+    void addAll(List<String> batch) {
+        int start = Math.max(0, batch.size() - lines.length);
+        int added = batch.size() - start;
+        int removed = Math.max(0, size + added - lines.length);
+        first = (first + removed) % lines.length;
+        size -= removed;
+        for (int i = start; i < batch.size(); i++) {
+            lines[(first + size) % lines.length] = batch.get(i);
+            size++;
+        }
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        if (added > 0) {
+            fireIntervalAdded(this, size - added, size - 1);
+        }
+    }
+}
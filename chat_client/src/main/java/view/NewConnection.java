@@ -18,11 +18,9 @@ public class NewConnection {
     private JTextField nicknameField;
     private JButton okButton;
     private JButton cancelButton;
-    private boolean isConfirmed;
 
     NewConnection(Controller controller) {
         this.controller = controller;
-        isConfirmed = true;
         initDialog();
         setInputFieldsLengths();
         addListeners();
@@ -68,10 +66,14 @@ public class NewConnection {
 
     private void addListeners() {
         okButton.addActionListener(e -> {
-            controller.connectToServer(ipAddressField.getText(), Integer.parseInt(portField.getText()), nicknameField.getText());
-            if (isConfirmed) {
-                dialog.setVisible(false);
-            }
+            okButton.setEnabled(false);
+            controller.connectToServer(ipAddressField.getText(), Integer.parseInt(portField.getText()), nicknameField.getText())
+                    .whenComplete((isLoggedIn, e1) -> SwingUtilities.invokeLater(() -> {
+                        okButton.setEnabled(true);
+                        if (Boolean.TRUE.equals(isLoggedIn)) {
+                            dialog.setVisible(false);
+                        }
+                    }));
         });
 
         cancelButton.addActionListener(e -> dialog.setVisible(false));
@@ -81,10 +83,6 @@ public class NewConnection {
         dialog.setVisible(true);
     }
 
-    void setConfirmation(boolean value) {
-        isConfirmed = value;
-    }
-
     {
 // GUI initializer generated by IntelliJ IDEA GUI Designer
 // >>> IMPORTANT!! <<<
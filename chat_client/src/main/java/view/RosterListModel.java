@@ -0,0 +1,147 @@
+package view;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Online users sorted case-insensitively in an array: a join or leave is a binary search and one array copy,
+ * and fires an event for its own row only. The filter shows the users whose nickname starts with a prefix,
+ * which in sorted order are one range found by two binary searches.
+ */
+class RosterListModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+    private static final Comparator<String> ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+    private String[] users = new String[16];
+    private int size;
+    private String filter = "";
+    // Range of the users matching the filter
+    private int from;
+    private int to;
+
+    @Override
+    public int getSize() {
+        return to - from;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return users[from + index];
+    }
+
+    void reset(Collection<String> newUsers) {
+        clearRange();
+        String[] sorted = newUsers.toArray(new String[0]);
+        Arrays.sort(sorted, ORDER);
+        users = Arrays.copyOf(sorted, Math.max(16, sorted.length + sorted.length / 2));
+        size = sorted.length;
+        updateRange();
+    }
+
+    void add(String user) {
+        int index = Arrays.binarySearch(users, 0, size, user, ORDER);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == users.length) {
+            users = Arrays.copyOf(users, size * 2);
+        }
+        System.arraycopy(users, index, users, index + 1, size - index);
+        users[index] = user;
+        size++;
+        int comparison = comparePrefix(user, filter);
+        if (comparison == 0) {
+            to++;
+            fireIntervalAdded(this, index - from, index - from);
+        } else if (comparison < 0) {
+            from++;
+            to++;
+        }
+    }
+
+    void remove(String user) {
+        int index = Arrays.binarySearch(users, 0, size, user, ORDER);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(users, index + 1, users, index, size - index - 1);
+        users[--size] = null;
+        if (index >= from && index < to) {
+            to--;
+            fireIntervalRemoved(this, index - from, index - from);
+        } else if (index < from) {
+            from--;
+            to--;
+        }
+    }
+
+    void setFilter(String prefix) {
+        clearRange();
+        filter = prefix;
+        updateRange();
+    }
+
+    private void clearRange() {
+        int oldSize = getSize();
+        from = 0;
+        to = 0;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    private void updateRange() {
+        from = searchPrefix(false);
+        to = searchPrefix(true);
+        if (to > from) {
+            fireIntervalAdded(this, 0, to - from - 1);
+        }
+    }
+
+    /**
+     * @return the index of the first user matching the filter, or after the last one
+     */
+    private int searchPrefix(boolean isAfterMatches) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(users[middle], filter);
+            if (comparison < 0 || isAfterMatches && comparison == 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the beginning of the nickname to the prefix the way {@link String#CASE_INSENSITIVE_ORDER} does.
+     */
+    private static int comparePrefix(String user, String prefix) {
+        int length = Math.min(user.length(), prefix.length());
+        for (int i = 0; i < length; i++) {
+            char userChar = user.charAt(i);
+            char prefixChar = prefix.charAt(i);
+            if (userChar == prefixChar) {
+                continue;
+            }
+            userChar = Character.toUpperCase(userChar);
+            prefixChar = Character.toUpperCase(prefixChar);
+            if (userChar == prefixChar) {
+                continue;
+            }
+            userChar = Character.toLowerCase(userChar);
+            prefixChar = Character.toLowerCase(prefixChar);
+            if (userChar != prefixChar) {
+                return userChar - prefixChar;
+            }
+        }
+        return user.length() < prefix.length() ? -1 : 0;
+    }
+}
@@ -0,0 +1,280 @@
+package packet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frame layout: varint body length, then body:
+ * version byte, type byte, varint field mask, and the fields present in the mask in declaration order.
+ * Strings are a varint byte length followed by UTF-8 bytes, lists are a varint size followed by strings.
+ */
+public final class BinaryPacketCodec {
+
+    public static final int VERSION = 1;
+    private static final int FIELD_TIMESTAMP = 1;
+    private static final int FIELD_NICKNAME = 1 << 1;
+    private static final int FIELD_MESSAGE = 1 << 2;
+    private static final int FIELD_USERS = 1 << 3;
+    private static final int FIELD_FEATURES = 1 << 4;
+    private static final int FIELD_ROSTER_VERSION = 1 << 5;
+    private static final int FIELD_SEQUENCE = 1 << 6;
+    private static final int FIELD_ROOM = 1 << 7;
+    private static final int FIELD_ROOMS = 1 << 8;
+    private static final int FIELD_RECIPIENT = 1 << 9;
+    private static final int FIELD_RECONNECT_DELAY = 1 << 10;
+    private static final int FIELD_SEARCH_CURSOR = 1 << 11;
+    private static final PacketType[] TYPES = PacketType.values();
+
+    private BinaryPacketCodec() {
+    }
+
+    public static byte[] encode(Packet packet) {
+        Output body = new Output();
+        body.writeByte(VERSION);
+        body.writeByte(packet.getType().ordinal());
+        int fieldMask = 0;
+        if (packet.getTimestamp() != 0) {
+            fieldMask |= FIELD_TIMESTAMP;
+        }
+        if (packet.getNickname() != null) {
+            fieldMask |= FIELD_NICKNAME;
+        }
+        if (packet.getMessage() != null) {
+            fieldMask |= FIELD_MESSAGE;
+        }
+        if (packet.getUsers() != null) {
+            fieldMask |= FIELD_USERS;
+        }
+        if (packet.getFeatures() != null) {
+            fieldMask |= FIELD_FEATURES;
+        }
+        if (packet.getRosterVersion() != 0) {
+            fieldMask |= FIELD_ROSTER_VERSION;
+        }
+        if (packet.getSequence() != 0) {
+            fieldMask |= FIELD_SEQUENCE;
+        }
+        if (packet.getRoom() != null) {
+            fieldMask |= FIELD_ROOM;
+        }
+        if (packet.getRooms() != null) {
+            fieldMask |= FIELD_ROOMS;
+        }
+        if (packet.getRecipient() != null) {
+            fieldMask |= FIELD_RECIPIENT;
+        }
+        if (packet.getReconnectDelayMillis() != 0) {
+            fieldMask |= FIELD_RECONNECT_DELAY;
+        }
+        if (packet.getSearchCursor() != 0) {
+            fieldMask |= FIELD_SEARCH_CURSOR;
+        }
+        body.writeVarLong(fieldMask);
+        if ((fieldMask & FIELD_TIMESTAMP) != 0) {
+            body.writeVarLong(packet.getTimestamp());
+        }
+        if ((fieldMask & FIELD_NICKNAME) != 0) {
+            body.writeString(packet.getNickname());
+        }
+        if ((fieldMask & FIELD_MESSAGE) != 0) {
+            body.writeString(packet.getMessage());
+        }
+        if ((fieldMask & FIELD_USERS) != 0) {
+            body.writeStrings(packet.getUsers());
+        }
+        if ((fieldMask & FIELD_FEATURES) != 0) {
+            body.writeStrings(packet.getFeatures());
+        }
+        if ((fieldMask & FIELD_ROSTER_VERSION) != 0) {
+            body.writeVarLong(packet.getRosterVersion());
+        }
+        if ((fieldMask & FIELD_SEQUENCE) != 0) {
+            body.writeVarLong(packet.getSequence());
+        }
+        if ((fieldMask & FIELD_ROOM) != 0) {
+            body.writeString(packet.getRoom());
+        }
+        if ((fieldMask & FIELD_ROOMS) != 0) {
+            body.writeStrings(packet.getRooms());
+        }
+        if ((fieldMask & FIELD_RECIPIENT) != 0) {
+            body.writeString(packet.getRecipient());
+        }
+        if ((fieldMask & FIELD_RECONNECT_DELAY) != 0) {
+            body.writeVarLong(packet.getReconnectDelayMillis());
+        }
+        if ((fieldMask & FIELD_SEARCH_CURSOR) != 0) {
+            body.writeVarLong(packet.getSearchCursor());
+        }
+
+        Output frame = new Output();
+        frame.writeVarLong(body.size);
+        frame.writeBytes(body.bytes, 0, body.size);
+        return frame.toByteArray();
+    }
+
+    public static Packet decode(ByteBuffer body) throws MalformedPacketException {
+        try {
+            int version = body.get() & 0xFF;
+            if (version != VERSION) {
+                throw new MalformedPacketException("Unsupported binary packet version " + version);
+            }
+            int type = body.get() & 0xFF;
+            if (type >= TYPES.length) {
+                throw new MalformedPacketException("Unknown packet type " + type);
+            }
+            Packet packet = new Packet();
+            packet.setType(TYPES[type]);
+            long fieldMask = readVarLong(body);
+            if ((fieldMask & FIELD_TIMESTAMP) != 0) {
+                packet.setTimestamp(readVarLong(body));
+            }
+            if ((fieldMask & FIELD_NICKNAME) != 0) {
+                packet.setNickname(readString(body));
+            }
+            if ((fieldMask & FIELD_MESSAGE) != 0) {
+                packet.setMessage(readString(body));
+            }
+            if ((fieldMask & FIELD_USERS) != 0) {
+                packet.setUsers(readStrings(body));
+            }
+            if ((fieldMask & FIELD_FEATURES) != 0) {
+                packet.setFeatures(readStrings(body));
+            }
+            if ((fieldMask & FIELD_ROSTER_VERSION) != 0) {
+                packet.setRosterVersion(readVarLong(body));
+            }
+            if ((fieldMask & FIELD_SEQUENCE) != 0) {
+                packet.setSequence(readVarLong(body));
+            }
+            if ((fieldMask & FIELD_ROOM) != 0) {
+                packet.setRoom(readString(body));
+            }
+            if ((fieldMask & FIELD_ROOMS) != 0) {
+                packet.setRooms(readStrings(body));
+            }
+            if ((fieldMask & FIELD_RECIPIENT) != 0) {
+                packet.setRecipient(readString(body));
+            }
+            if ((fieldMask & FIELD_RECONNECT_DELAY) != 0) {
+                packet.setReconnectDelayMillis(readVarLong(body));
+            }
+            if ((fieldMask & FIELD_SEARCH_CURSOR) != 0) {
+                packet.setSearchCursor(readVarLong(body));
+            }
+            return packet;
+        } catch (RuntimeException e) {
+            throw new MalformedPacketException("Malformed binary packet", e);
+        }
+    }
+
+    /**
+     * @return the varint at the buffer position, or -1 leaving the position untouched if it is incomplete
+     */
+    static long peekVarLong(ByteBuffer buffer) throws MalformedPacketException {
+        long value = 0;
+        int position = buffer.position();
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= buffer.limit()) {
+                return -1;
+            }
+            byte b = buffer.get(position++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                buffer.position(position);
+                return value;
+            }
+        }
+        throw new MalformedPacketException("Malformed varint");
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws MalformedPacketException {
+        int position = buffer.position();
+        long value = peekVarLong(buffer);
+        // -1 is also a complete varint of ten bytes, only an incomplete one leaves the position untouched
+        if (buffer.position() == position) {
+            throw new MalformedPacketException("Truncated varint");
+        }
+        return value;
+    }
+
+    /**
+     * @return a length or size that fits in the rest of the body, each element taking at least one byte
+     */
+    private static int readLength(ByteBuffer buffer) throws MalformedPacketException {
+        long length = readVarLong(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new MalformedPacketException("Length " + length + " exceeds the frame");
+        }
+        return (int) length;
+    }
+
+    private static String readString(ByteBuffer buffer) throws MalformedPacketException {
+        int length = readLength(buffer);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) throws MalformedPacketException {
+        int size = readLength(buffer);
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+
+    private static final class Output {
+
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] value, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(value, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            writeBytes(utf8, 0, utf8.length);
+        }
+
+        private void writeStrings(List<String> values) {
+            writeVarLong(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package packet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses binary frames of at least {@link #MIN_FRAME_SIZE} bytes with raw deflate primed by a preset dictionary
+ * of common chat text, so a single roster or message compresses well without the context of earlier frames. As
+ * each frame is compressed on its own, a frame compressed once can be sent to any number of connections.
+ * <p>
+ * Compressed frame layout: varint body length, then body: {@link #DEFLATED} byte, varint length of the original
+ * body, and the deflate stream of the original body.
+ */
+public final class DeflateCodec {
+
+    public static final int MIN_FRAME_SIZE = 256;
+    // The binary version byte with the high bit set
+    static final int DEFLATED = 0x80 | BinaryPacketCodec.VERSION;
+    // Deflate finds the most recent matches cheapest, so the most common text comes last
+    // Peers must agree on every byte, so the Russian words are escaped rather than left to the source encoding
+    private static final byte[] DICTIONARY = ("presence binary deflate "
+            + "thanks please sorry maybe today tomorrow tonight morning really think know want need good great "
+            + "when what where there here about with this that have just like yes no ok lol "
+            + "\u0441\u043f\u0430\u0441\u0438\u0431\u043e \u043f\u043e\u0436\u0430\u043b\u0443\u0439\u0441\u0442\u0430 "
+            + "\u0441\u0435\u0433\u043e\u0434\u043d\u044f \u0437\u0430\u0432\u0442\u0440\u0430 "
+            + "\u0432\u0435\u0447\u0435\u0440\u043e\u043c \u0443\u0442\u0440\u043e\u043c "
+            + "\u043c\u043e\u0436\u0435\u0442 \u0431\u044b\u0442\u044c \u0445\u043e\u0440\u043e\u0448\u043e "
+            + "\u043e\u0442\u043b\u0438\u0447\u043d\u043e \u0434\u0443\u043c\u0430\u044e \u0437\u043d\u0430\u044e "
+            + "\u0445\u043e\u0447\u0443 \u043d\u0443\u0436\u043d\u043e \u043a\u043e\u0433\u0434\u0430 "
+            + "\u0447\u0442\u043e \u0433\u0434\u0435 \u0442\u0430\u043c \u0437\u0434\u0435\u0441\u044c "
+            + "\u044d\u0442\u043e \u043a\u0430\u043a \u0442\u0430\u043a \u0443\u0436\u0435 \u0435\u0449\u0451 "
+            + "\u0432\u0441\u0435 \u0432\u0441\u0435\u043c \u043f\u0440\u0438\u0432\u0435\u0442 "
+            + "\u043f\u043e\u043a\u0430 \u0434\u0430 \u043d\u0435\u0442 "
+            + "admin user guest test dev team chat room general").getBytes(StandardCharsets.UTF_8);
+    // Idle compressors, one per thread compressing at the same time
+    private static final Queue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+
+    private DeflateCodec() {
+    }
+
+    /**
+     * @param frame a binary frame
+     * @return the compressed frame, or the frame itself if it is too small or does not get smaller
+     */
+    public static byte[] compress(byte[] frame) {
+        if (frame.length < MIN_FRAME_SIZE) {
+            return frame;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        int bodyLength;
+        try {
+            bodyLength = (int) BinaryPacketCodec.peekVarLong(buffer);
+        } catch (MalformedPacketException e) {
+            throw new IllegalArgumentException("Not a binary frame", e);
+        }
+        int bodyStart = buffer.position();
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(frame, bodyStart, bodyLength);
+            deflater.finish();
+            // Anything not smaller than the original body is not worth sending
+            byte[] stream = new byte[bodyLength];
+            int streamLength = 0;
+            while (!deflater.finished() && streamLength < stream.length) {
+                streamLength += deflater.deflate(stream, streamLength, stream.length - streamLength);
+            }
+            int compressedBodyLength = 1 + varLongSize(bodyLength) + streamLength;
+            int compressedLength = varLongSize(compressedBodyLength) + compressedBodyLength;
+            if (!deflater.finished() || compressedLength >= frame.length) {
+                return frame;
+            }
+            byte[] compressed = new byte[compressedLength];
+            int position = writeVarLong(compressed, 0, compressedBodyLength);
+            compressed[position++] = (byte) DEFLATED;
+            position = writeVarLong(compressed, position, bodyLength);
+            System.arraycopy(stream, 0, compressed, position, streamLength);
+            return compressed;
+        } finally {
+            deflater.reset();
+            DEFLATERS.offer(deflater);
+        }
+    }
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarLong(byte[] bytes, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Inflates compressed frame bodies of one connection, reusing its inflater and output buffer. Not thread-safe.
+     */
+    static final class Decompressor {
+
+        private final Inflater inflater = new Inflater(true);
+        private byte[] inflated = new byte[1024];
+
+        /**
+         * @param body the frame body after the {@link #DEFLATED} byte
+         * @return the original body, valid until the next call
+         */
+        ByteBuffer decompress(ByteBuffer body, int maxFrameSize) throws MalformedPacketException {
+            long length = BinaryPacketCodec.peekVarLong(body);
+            if (length < 0 || length > maxFrameSize) {
+                throw new MalformedPacketException("Compressed frame of " + length + " bytes is too large");
+            }
+            if (inflated.length < length) {
+                inflated = new byte[Math.max(inflated.length * 2, (int) length)];
+            }
+            inflater.reset();
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            try {
+                int read = 0;
+                while (read < length) {
+                    int n = inflater.inflate(inflated, read, (int) length - read);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += n;
+                }
+                if (read != length) {
+                    throw new MalformedPacketException("Compressed frame is truncated");
+                }
+            } catch (DataFormatException e) {
+                throw new MalformedPacketException("Malformed compressed frame", e);
+            }
+            return ByteBuffer.wrap(inflated, 0, (int) length);
+        }
+    }
+}
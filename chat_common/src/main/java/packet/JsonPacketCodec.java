@@ -0,0 +1,35 @@
+package packet;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+
+public final class JsonPacketCodec {
+
+    private static final Gson GSON = new Gson();
+    private static final TimestampFormatter DATE_FORMATTER = new TimestampFormatter();
+
+    private JsonPacketCodec() {
+    }
+
+    public static byte[] encode(Packet packet) {
+        return (GSON.toJson(packet) + '\n').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Also writes the timestamp as the date string clients displayed before they formatted timestamps themselves.
+     */
+    public static byte[] encodeWithDate(Packet packet) {
+        JsonObject json = GSON.toJsonTree(packet).getAsJsonObject();
+        json.addProperty("date", DATE_FORMATTER.format(packet.getTimestamp()));
+        return (GSON.toJson(json) + '\n').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes one line without its line break. Decoding many lines, {@link PacketDecoder} reuses its parser.
+     */
+    public static Packet decode(byte[] bytes, int offset, int length) throws MalformedPacketException {
+        return new JsonPacketParser().parse(bytes, offset, length);
+    }
+}
@@ -0,0 +1,445 @@
+package packet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a JSON packet straight from the bytes of its line: field names are matched as UTF-8 bytes and values set
+ * through the setters, without a String of the line or reflection. Unknown fields are skipped, so newer peers may
+ * send fields this version does not know. An instance is reused by its decoder and is not thread-safe.
+ */
+final class JsonPacketParser {
+
+    private static final PacketType[] TYPES = PacketType.values();
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+    private static final byte[][] FIELD_NAMES = names("type", "timestamp", "nickname", "message", "users", "features",
+            "rosterVersion", "sequence", "room", "rooms", "recipient", "reconnectDelayMillis",
+            "searchCursor");
+    private static final int FIELD_TYPE = 0;
+    private static final int FIELD_TIMESTAMP = 1;
+    private static final int FIELD_NICKNAME = 2;
+    private static final int FIELD_MESSAGE = 3;
+    private static final int FIELD_USERS = 4;
+    private static final int FIELD_FEATURES = 5;
+    private static final int FIELD_ROSTER_VERSION = 6;
+    private static final int FIELD_SEQUENCE = 7;
+    private static final int FIELD_ROOM = 8;
+    private static final int FIELD_ROOMS = 9;
+    private static final int FIELD_RECIPIENT = 10;
+    private static final int FIELD_RECONNECT_DELAY = 11;
+    private static final int FIELD_SEARCH_CURSOR = 12;
+    private static final int MAX_ERROR_SNIPPET = 200;
+    private byte[] bytes;
+    private int start;
+    private int position;
+    private int end;
+    // Unescaped UTF-8 of strings containing escape sequences
+    private byte[] scratch = new byte[64];
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_NAMES[i] = TYPES[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    Packet parse(byte[] bytes, int offset, int length) throws MalformedPacketException {
+        this.bytes = bytes;
+        start = offset;
+        position = offset;
+        end = offset + length;
+        try {
+            Packet packet = readPacket();
+            skipWhitespace();
+            if (position != end) {
+                throw malformed("Unexpected data after packet");
+            }
+            return packet;
+        } finally {
+            this.bytes = null;
+        }
+    }
+
+    private Packet readPacket() throws MalformedPacketException {
+        skipWhitespace();
+        expect('{');
+        Packet packet = new Packet();
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return packet;
+        }
+        while (true) {
+            skipWhitespace();
+            int field = readFieldName();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            readField(packet, field);
+            skipWhitespace();
+            byte next = next();
+            if (next == '}') {
+                return packet;
+            }
+            if (next != ',') {
+                throw malformed("Expected , or }");
+            }
+        }
+    }
+
+    private void readField(Packet packet, int field) throws MalformedPacketException {
+        switch (field) {
+            case FIELD_TYPE:
+                packet.setType(readType());
+                break;
+            case FIELD_TIMESTAMP:
+                packet.setTimestamp(readLong());
+                break;
+            case FIELD_NICKNAME:
+                packet.setNickname(readString());
+                break;
+            case FIELD_MESSAGE:
+                packet.setMessage(readString());
+                break;
+            case FIELD_USERS:
+                packet.setUsers(readStrings());
+                break;
+            case FIELD_FEATURES:
+                packet.setFeatures(readStrings());
+                break;
+            case FIELD_ROSTER_VERSION:
+                packet.setRosterVersion(readLong());
+                break;
+            case FIELD_SEQUENCE:
+                packet.setSequence(readLong());
+                break;
+            case FIELD_ROOM:
+                packet.setRoom(readString());
+                break;
+            case FIELD_ROOMS:
+                packet.setRooms(readStrings());
+                break;
+            case FIELD_RECIPIENT:
+                packet.setRecipient(readString());
+                break;
+            case FIELD_RECONNECT_DELAY:
+                packet.setReconnectDelayMillis(readLong());
+                break;
+            case FIELD_SEARCH_CURSOR:
+                packet.setSearchCursor(readLong());
+                break;
+            default:
+                skipValue();
+        }
+    }
+
+    /**
+     * @return the index of the field in {@link #FIELD_NAMES}, or -1 if it is unknown
+     */
+    private int readFieldName() throws MalformedPacketException {
+        expect('"');
+        int nameStart = position;
+        skipStringBody();
+        return indexOf(FIELD_NAMES, nameStart, position - 1 - nameStart);
+    }
+
+    private PacketType readType() throws MalformedPacketException {
+        if (readNull()) {
+            throw malformed("Unknown packet");
+        }
+        expect('"');
+        int nameStart = position;
+        skipStringBody();
+        int type = indexOf(TYPE_NAMES, nameStart, position - 1 - nameStart);
+        if (type < 0) {
+            throw malformed("Unknown packet");
+        }
+        return TYPES[type];
+    }
+
+    private long readLong() throws MalformedPacketException {
+        boolean isNegative = position < end && bytes[position] == '-';
+        if (isNegative) {
+            position++;
+        }
+        int digitsStart = position;
+        // Accumulated negatively, the negative range holds one value more than the positive one
+        long limit = isNegative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        while (position < end && bytes[position] >= '0' && bytes[position] <= '9') {
+            int digit = bytes[position++] - '0';
+            if (value < limit / 10 || value * 10 < limit + digit) {
+                throw malformed("Number out of range");
+            }
+            value = value * 10 - digit;
+        }
+        if (position == digitsStart) {
+            throw malformed("Expected a number");
+        }
+        return isNegative ? value : -value;
+    }
+
+    private String readString() throws MalformedPacketException {
+        if (readNull()) {
+            return null;
+        }
+        expect('"');
+        int stringStart = position;
+        while (position < end) {
+            byte b = bytes[position];
+            if (b == '"') {
+                position++;
+                return new String(bytes, stringStart, position - 1 - stringStart, StandardCharsets.UTF_8);
+            }
+            if (b == '\\') {
+                return readEscapedString(stringStart);
+            }
+            position++;
+        }
+        throw malformed("Unterminated string");
+    }
+
+    /**
+     * Copies the string into the scratch buffer replacing escape sequences with the UTF-8 of their characters;
+     * a JSON escape is never shorter than the UTF-8 it stands for, so the rest of the line is always enough room.
+     */
+    private String readEscapedString(int stringStart) throws MalformedPacketException {
+        if (scratch.length < end - stringStart) {
+            scratch = new byte[Math.max(scratch.length * 2, end - stringStart)];
+        }
+        int length = position - stringStart;
+        System.arraycopy(bytes, stringStart, scratch, 0, length);
+        while (position < end) {
+            byte b = bytes[position++];
+            if (b == '"') {
+                return new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            if (b != '\\') {
+                scratch[length++] = b;
+                continue;
+            }
+            if (position >= end) {
+                break;
+            }
+            byte escaped = bytes[position++];
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    scratch[length++] = escaped;
+                    break;
+                case 'b':
+                    scratch[length++] = '\b';
+                    break;
+                case 'f':
+                    scratch[length++] = '\f';
+                    break;
+                case 'n':
+                    scratch[length++] = '\n';
+                    break;
+                case 'r':
+                    scratch[length++] = '\r';
+                    break;
+                case 't':
+                    scratch[length++] = '\t';
+                    break;
+                case 'u':
+                    length = writeUtf8(readCodePoint(), length);
+                    break;
+                default:
+                    throw malformed("Invalid escape");
+            }
+        }
+        throw malformed("Unterminated string");
+    }
+
+    /**
+     * Reads the hex digits of a \\u escape, and the low surrogate following a high one.
+     */
+    private int readCodePoint() throws MalformedPacketException {
+        char c = readHexChar();
+        if (Character.isHighSurrogate(c) && position + 6 <= end && bytes[position] == '\\' && bytes[position + 1] == 'u') {
+            int next = position;
+            position += 2;
+            char low = readHexChar();
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(c, low);
+            }
+            position = next;
+        }
+        return Character.isSurrogate(c) ? '?' : c;
+    }
+
+    private char readHexChar() throws MalformedPacketException {
+        if (position + 4 > end) {
+            throw malformed("Invalid escape");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(bytes[position++], 16);
+            if (digit < 0) {
+                throw malformed("Invalid escape");
+            }
+            value = value << 4 | digit;
+        }
+        return (char) value;
+    }
+
+    private int writeUtf8(int codePoint, int length) {
+        if (codePoint < 0x80) {
+            scratch[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            scratch[length++] = (byte) (0xC0 | codePoint >> 6);
+            scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            scratch[length++] = (byte) (0xE0 | codePoint >> 12);
+            scratch[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else {
+            scratch[length++] = (byte) (0xF0 | codePoint >> 18);
+            scratch[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            scratch[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        return length;
+    }
+
+    private List<String> readStrings() throws MalformedPacketException {
+        if (readNull()) {
+            return null;
+        }
+        expect('[');
+        List<String> values = new ArrayList<>();
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return values;
+        }
+        while (true) {
+            skipWhitespace();
+            values.add(readString());
+            skipWhitespace();
+            byte next = next();
+            if (next == ']') {
+                return values;
+            }
+            if (next != ',') {
+                throw malformed("Expected , or ]");
+            }
+        }
+    }
+
+    private void skipValue() throws MalformedPacketException {
+        byte first = peek();
+        if (first == '"') {
+            position++;
+            skipStringBody();
+        } else if (first == '{' || first == '[') {
+            int depth = 0;
+            do {
+                byte b = next();
+                if (b == '"') {
+                    skipStringBody();
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            int valueStart = position;
+            while (position < end && bytes[position] != ',' && bytes[position] != '}' && bytes[position] != ']'
+                    && !isWhitespace(bytes[position])) {
+                position++;
+            }
+            if (position == valueStart) {
+                throw malformed("Expected a value");
+            }
+        }
+    }
+
+    /**
+     * Moves past the closing quote of a string whose opening quote has been read.
+     */
+    private void skipStringBody() throws MalformedPacketException {
+        while (position < end) {
+            byte b = bytes[position++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                position++;
+            }
+        }
+        throw malformed("Unterminated string");
+    }
+
+    private boolean readNull() {
+        if (position + 4 <= end && bytes[position] == 'n' && bytes[position + 1] == 'u' && bytes[position + 2] == 'l'
+                && bytes[position + 3] == 'l') {
+            position += 4;
+            return true;
+        }
+        return false;
+    }
+
+    private int indexOf(byte[][] names, int offset, int length) {
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i];
+            if (name.length != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && name[j] == bytes[offset + j]) {
+                j++;
+            }
+            if (j == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(bytes[position])) {
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private void expect(char expected) throws MalformedPacketException {
+        if (next() != expected) {
+            throw malformed("Expected " + expected);
+        }
+    }
+
+    private byte peek() throws MalformedPacketException {
+        if (position >= end) {
+            throw malformed("Unexpected end of packet");
+        }
+        return bytes[position];
+    }
+
+    private byte next() throws MalformedPacketException {
+        byte b = peek();
+        position++;
+        return b;
+    }
+
+    private MalformedPacketException malformed(String reason) {
+        int length = Math.min(end - start, MAX_ERROR_SNIPPET);
+        return new MalformedPacketException(reason + " at " + (position - start) + ": "
+                + new String(bytes, start, length, StandardCharsets.UTF_8));
+    }
+
+    private static byte[][] names(String... names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
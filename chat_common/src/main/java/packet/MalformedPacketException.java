@@ -0,0 +1,16 @@
+package packet;
+
+import java.io.IOException;
+
+public class MalformedPacketException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MalformedPacketException(String message) {
+        super(message);
+    }
+
+    public MalformedPacketException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
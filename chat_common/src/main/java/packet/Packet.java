@@ -4,15 +4,27 @@ import java.util.List;
 
 public class Packet {
 
+    /**
+     * Room of CHAT packets sent without one; every logged in user is a member and cannot leave it.
+     */
+    public static final String DEFAULT_ROOM = "general";
     private PacketType type;
-    private String date;
+    // Epoch millis assigned by the server, formatted by the clients for display
+    private long timestamp;
     private String nickname;
     private String message;
     private List<String> users;
+    private List<String> features;
+    private long rosterVersion;
+    private long sequence;
+    private String room;
+    private List<String> rooms;
+    private String recipient;
+    private long reconnectDelayMillis;
+    private long searchCursor;
 
     public Packet() {
         type = PacketType.CHAT;
-        date = null;
         nickname = null;
         message = null;
     }
@@ -25,12 +37,12 @@ public class Packet {
         this.type = type;
     }
 
-    public String getDate() {
-        return date;
+    public long getTimestamp() {
+        return timestamp;
     }
 
-    public void setDate(String date) {
-        this.date = date;
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
     }
 
     public String getNickname() {
@@ -56,4 +68,72 @@ public class Packet {
     public void setUsers(List<String> users) {
         this.users = users;
     }
-}
\ No newline at end of file
+
+    public List<String> getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(List<String> features) {
+        this.features = features;
+    }
+
+    public long getRosterVersion() {
+        return rosterVersion;
+    }
+
+    public void setRosterVersion(long rosterVersion) {
+        this.rosterVersion = rosterVersion;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public List<String> getRooms() {
+        return rooms;
+    }
+
+    public void setRooms(List<String> rooms) {
+        this.rooms = rooms;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public long getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
+    public void setReconnectDelayMillis(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    public long getSearchCursor() {
+        return searchCursor;
+    }
+
+    public void setSearchCursor(long searchCursor) {
+        this.searchCursor = searchCursor;
+    }
+
+    public boolean hasFeature(String feature) {
+        return features != null && features.contains(feature);
+    }
+}
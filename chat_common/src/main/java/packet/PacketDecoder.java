@@ -0,0 +1,112 @@
+package packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes frames in place from a reusable read buffer. A frame larger than the maximum frame size is rejected
+ * before it is buffered: a binary frame by its length prefix, a JSON line once that many bytes came without
+ * a line break. A compressed binary frame is also rejected if its original size is over the limit.
+ */
+public class PacketDecoder {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private final JsonPacketParser jsonParser = new JsonPacketParser();
+    // Created by the first compressed frame, most connections never get one
+    private DeflateCodec.Decompressor decompressor;
+    private WireFormat wireFormat = WireFormat.JSON;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    // Bytes after the buffer position already searched for a line break, so a long line is scanned once
+    private int scannedBytes;
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+        scannedBytes = 0;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Decodes the next frame from a heap buffer in read mode.
+     *
+     * @return the packet, or null leaving the buffer position untouched if the frame is not complete yet
+     */
+    public Packet decode(ByteBuffer buffer) throws MalformedPacketException {
+        return wireFormat.isJson() ? decodeJson(buffer) : decodeBinary(buffer);
+    }
+
+    private Packet decodeJson(ByteBuffer buffer) throws MalformedPacketException {
+        byte[] bytes = buffer.array();
+        int lineStart = buffer.arrayOffset() + buffer.position();
+        int limit = buffer.arrayOffset() + buffer.limit();
+        for (int i = lineStart + scannedBytes; i < limit; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            buffer.position(i + 1 - buffer.arrayOffset());
+            scannedBytes = 0;
+            if (lineEnd == lineStart) {
+                lineStart = i + 1;
+                continue;
+            }
+            if (lineEnd - lineStart > maxFrameSize) {
+                throw new MalformedPacketException("JSON frame of " + (lineEnd - lineStart) + " bytes is too large");
+            }
+            return jsonParser.parse(bytes, lineStart, lineEnd - lineStart);
+        }
+        scannedBytes = limit - lineStart;
+        if (scannedBytes > maxFrameSize) {
+            throw new MalformedPacketException("JSON frame of over " + maxFrameSize + " bytes is too large");
+        }
+        return null;
+    }
+
+    private Packet decodeBinary(ByteBuffer buffer) throws MalformedPacketException {
+        int frameStart = buffer.position();
+        long length = BinaryPacketCodec.peekVarLong(buffer);
+        if (length < 0) {
+            return null;
+        }
+        if (length > maxFrameSize) {
+            throw new MalformedPacketException("Binary frame of " + length + " bytes is too large");
+        }
+        if (buffer.remaining() < length) {
+            buffer.position(frameStart);
+            return null;
+        }
+        // Decode within the frame without slicing the buffer
+        int limit = buffer.limit();
+        int frameEnd = buffer.position() + (int) length;
+        buffer.limit(frameEnd);
+        try {
+            if (length > 0 && (buffer.get(buffer.position()) & 0xFF) == DeflateCodec.DEFLATED) {
+                return decodeCompressed(buffer);
+            }
+            return BinaryPacketCodec.decode(buffer);
+        } finally {
+            buffer.limit(limit);
+            buffer.position(frameEnd);
+        }
+    }
+
+    private Packet decodeCompressed(ByteBuffer frame) throws MalformedPacketException {
+        if (wireFormat != WireFormat.BINARY_DEFLATE) {
+            throw new MalformedPacketException("Compressed frame without deflate negotiated");
+        }
+        if (decompressor == null) {
+            decompressor = new DeflateCodec.Decompressor();
+        }
+        frame.position(frame.position() + 1);
+        return BinaryPacketCodec.decode(decompressor.decompress(frame, maxFrameSize));
+    }
+}
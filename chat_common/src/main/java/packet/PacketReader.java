@@ -0,0 +1,55 @@
+package packet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class PacketReader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private final InputStream inputStream;
+    private final PacketDecoder decoder;
+    private ByteBuffer buffer;
+
+    public PacketReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+        decoder = new PacketDecoder();
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+    }
+
+    public void setWireFormat(WireFormat wireFormat) {
+        decoder.setWireFormat(wireFormat);
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        decoder.setMaxFrameSize(maxFrameSize);
+    }
+
+    /**
+     * @return the next packet, or null at the end of the stream
+     */
+    public Packet read() throws IOException {
+        while (true) {
+            Packet packet = decoder.decode(buffer);
+            if (packet != null) {
+                return packet;
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                ByteBuffer expanded = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                expanded.put(buffer);
+                buffer = expanded;
+            }
+            int read = inputStream.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read > 0) {
+                buffer.position(buffer.position() + read);
+            }
+            buffer.flip();
+            if (read < 0) {
+                return null;
+            }
+        }
+    }
+}
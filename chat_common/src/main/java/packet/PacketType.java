@@ -1,8 +1,24 @@
 package packet;
 
 public enum PacketType {
+    // BinaryPacketCodec encodes types by ordinal, new types must be appended
     LOGIN,
     LOGIN_REJECTED,
     CHAT,
-    LOGOUT
+    LOGOUT,
+    USER_JOINED,
+    USER_LEFT,
+    ROSTER,
+    JOIN,
+    PART,
+    PRIVATE,
+    PRIVATE_DELIVERED,
+    PRIVATE_OFFLINE,
+    // searchCursor is the sequence a page starts below in the request and the next page in the response
+    SEARCH,
+    // searchCursor is the sequence of the found message
+    SEARCH_RESULT,
+    RATE_LIMITED,
+    // Sent before the server stops with the suggested delay before reconnecting
+    SERVER_SHUTDOWN
 }
@@ -0,0 +1,14 @@
+package packet;
+
+public final class ProtocolFeature {
+
+    public static final String BINARY = "binary";
+    public static final String PRESENCE = "presence";
+    // Only together with BINARY
+    public static final String DEFLATE = "deflate";
+    // The client formats timestamps itself, JSON packets to clients without it also carry the formatted date
+    public static final String TIMESTAMP = "timestamp";
+
+    private ProtocolFeature() {
+    }
+}
@@ -0,0 +1,47 @@
+package packet;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats packet timestamps for display, to the minute. Messages mostly arrive within the minute of the previous
+ * one, so the last formatted minute is cached and reused without formatting or allocating. Thread-safe.
+ */
+public final class TimestampFormatter {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    private static final long MILLIS_PER_MINUTE = 60_000;
+    private final ZoneId zone;
+    private volatile FormattedMinute lastMinute;
+
+    public TimestampFormatter() {
+        this(ZoneId.systemDefault());
+    }
+
+    public TimestampFormatter(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public String format(long timestamp) {
+        long minute = Math.floorDiv(timestamp, MILLIS_PER_MINUTE);
+        FormattedMinute cached = lastMinute;
+        if (cached != null && cached.minute == minute) {
+            return cached.text;
+        }
+        String text = FORMATTER.format(Instant.ofEpochMilli(minute * MILLIS_PER_MINUTE).atZone(zone));
+        lastMinute = new FormattedMinute(minute, text);
+        return text;
+    }
+
+    private static final class FormattedMinute {
+
+        private final long minute;
+        private final String text;
+
+        private FormattedMinute(long minute, String text) {
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package packet;
+
+public enum WireFormat {
+    JSON,
+    // JSON also carrying the timestamp as the formatted date, displayed by clients without the TIMESTAMP feature
+    LEGACY_JSON,
+    BINARY,
+    // Binary frames, large ones compressed by DeflateCodec
+    BINARY_DEFLATE;
+
+    public byte[] encode(Packet packet) {
+        switch (this) {
+            case BINARY:
+                return BinaryPacketCodec.encode(packet);
+            case BINARY_DEFLATE:
+                return DeflateCodec.compress(BinaryPacketCodec.encode(packet));
+            case LEGACY_JSON:
+                return JsonPacketCodec.encodeWithDate(packet);
+            default:
+                return JsonPacketCodec.encode(packet);
+        }
+    }
+
+    /**
+     * @return true for the line based formats
+     */
+    public boolean isJson() {
+        return this == JSON || this == LEGACY_JSON;
+    }
+
+    /**
+     * @return the format agreed by the features of a login response
+     */
+    public static WireFormat negotiated(Packet response) {
+        if (!response.hasFeature(ProtocolFeature.BINARY)) {
+            return response.hasFeature(ProtocolFeature.TIMESTAMP) ? JSON : LEGACY_JSON;
+        }
+        return response.hasFeature(ProtocolFeature.DEFLATE) ? BINARY_DEFLATE : BINARY;
+    }
+}
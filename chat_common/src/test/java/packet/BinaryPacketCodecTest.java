@@ -0,0 +1,205 @@
+package packet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BinaryPacketCodecTest {
+
+    @Test
+    public void roundTripsEveryField() throws MalformedPacketException {
+        Packet packet = new Packet();
+        packet.setType(PacketType.PRIVATE);
+        packet.setTimestamp(1_500_000_000_000L);
+        packet.setNickname("alice");
+        packet.setMessage("\u043f\u0440\u0438\u0432\u0435\u0442 \ud83d\ude00");
+        packet.setUsers(Arrays.asList("alice", "bob"));
+        packet.setFeatures(Collections.singletonList(ProtocolFeature.BINARY));
+        packet.setRosterVersion(42);
+        packet.setSequence(Long.MAX_VALUE);
+        packet.setRoom("room");
+        packet.setRooms(Arrays.asList(Packet.DEFAULT_ROOM, "room"));
+        packet.setRecipient("bob");
+        packet.setReconnectDelayMillis(1500);
+        packet.setSearchCursor(42);
+
+        Packet decoded = decodeFrame(BinaryPacketCodec.encode(packet));
+
+        assertEquals(packet.getType(), decoded.getType());
+        assertEquals(packet.getTimestamp(), decoded.getTimestamp());
+        assertEquals(packet.getNickname(), decoded.getNickname());
+        assertEquals(packet.getMessage(), decoded.getMessage());
+        assertEquals(packet.getUsers(), decoded.getUsers());
+        assertEquals(packet.getFeatures(), decoded.getFeatures());
+        assertEquals(packet.getRosterVersion(), decoded.getRosterVersion());
+        assertEquals(packet.getSequence(), decoded.getSequence());
+        assertEquals(packet.getRoom(), decoded.getRoom());
+        assertEquals(packet.getRooms(), decoded.getRooms());
+        assertEquals(packet.getRecipient(), decoded.getRecipient());
+        assertEquals(packet.getReconnectDelayMillis(), decoded.getReconnectDelayMillis());
+        assertEquals(packet.getSearchCursor(), decoded.getSearchCursor());
+    }
+
+    @Test
+    public void leavesAbsentFieldsUnset() throws MalformedPacketException {
+        Packet packet = new Packet();
+        packet.setType(PacketType.LOGOUT);
+
+        byte[] frame = BinaryPacketCodec.encode(packet);
+        Packet decoded = decodeFrame(frame);
+
+        // Length, version, type and an empty field mask
+        assertEquals(4, frame.length);
+        assertEquals(PacketType.LOGOUT, decoded.getType());
+        assertEquals(0, decoded.getTimestamp());
+        assertNull(decoded.getNickname());
+        assertNull(decoded.getMessage());
+        assertNull(decoded.getUsers());
+        assertNull(decoded.getRooms());
+        assertEquals(0, decoded.getSequence());
+    }
+
+    @Test
+    public void roundTripsEmptyStringsAndLists() throws MalformedPacketException {
+        Packet packet = new Packet();
+        packet.setMessage("");
+        packet.setUsers(Collections.<String>emptyList());
+
+        Packet decoded = decodeFrame(BinaryPacketCodec.encode(packet));
+
+        assertEquals("", decoded.getMessage());
+        assertEquals(Collections.emptyList(), decoded.getUsers());
+    }
+
+    @Test
+    public void roundTripsNegativeNumbers() throws MalformedPacketException {
+        Packet packet = new Packet();
+        packet.setTimestamp(Long.MIN_VALUE);
+        packet.setRosterVersion(-1);
+
+        Packet decoded = decodeFrame(BinaryPacketCodec.encode(packet));
+
+        assertEquals(Long.MIN_VALUE, decoded.getTimestamp());
+        assertEquals(-1, decoded.getRosterVersion());
+    }
+
+    @Test
+    public void roundTripsEveryType() throws MalformedPacketException {
+        for (PacketType type : PacketType.values()) {
+            Packet packet = new Packet();
+            packet.setType(type);
+            assertEquals(type, decodeFrame(BinaryPacketCodec.encode(packet)).getType());
+        }
+    }
+
+    @Test
+    public void prefixesTheBodyLength() throws MalformedPacketException {
+        Packet packet = new Packet();
+        char[] message = new char[300];
+        Arrays.fill(message, 'a');
+        packet.setMessage(new String(message));
+
+        byte[] frame = BinaryPacketCodec.encode(packet);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+
+        assertEquals(frame.length - 2, BinaryPacketCodec.peekVarLong(buffer));
+        assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void peeksIncompleteVarintWithoutConsuming() throws MalformedPacketException {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80});
+
+        assertEquals(-1, BinaryPacketCodec.peekVarLong(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() {
+        assertMalformed(body(BinaryPacketCodec.VERSION + 1, 0, 0));
+    }
+
+    @Test
+    public void rejectsUnknownType() {
+        assertMalformed(body(BinaryPacketCodec.VERSION, PacketType.values().length, 0));
+    }
+
+    @Test
+    public void rejectsEmptyBody() {
+        assertMalformed(body());
+    }
+
+    @Test
+    public void rejectsTruncatedFieldMask() {
+        assertMalformed(body(BinaryPacketCodec.VERSION, 0, 0x80));
+    }
+
+    @Test
+    public void rejectsOverlongVarint() {
+        byte[] body = new byte[13];
+        body[0] = BinaryPacketCodec.VERSION;
+        Arrays.fill(body, 2, body.length, (byte) 0x80);
+        assertMalformed(ByteBuffer.wrap(body));
+    }
+
+    @Test
+    public void rejectsFieldMissingFromBody() {
+        // Timestamp in the mask, nothing after it
+        assertMalformed(body(BinaryPacketCodec.VERSION, 0, 1));
+    }
+
+    @Test
+    public void rejectsStringPastTheEndOfTheFrame() {
+        // A nickname of 5 bytes with 2 in the frame and more bytes of the next frame after it
+        byte[] bytes = {BinaryPacketCodec.VERSION, 0, 2, 5, 'a', 'b', 'c', 'd', 'e'};
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.limit(6);
+        assertMalformed(buffer);
+    }
+
+    @Test
+    public void rejectsNegativeStringLength() {
+        // A nickname length of -1 as a 10 byte varint
+        byte[] bytes = {BinaryPacketCodec.VERSION, 0, 2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        assertMalformed(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void rejectsListLongerThanTheFrame() {
+        // Two users in the frame, a thousand announced
+        byte[] bytes = {BinaryPacketCodec.VERSION, 0, 8, (byte) 0xE8, 0x07, 1, 'a', 1, 'b'};
+        assertMalformed(ByteBuffer.wrap(bytes));
+    }
+
+    private static Packet decodeFrame(byte[] frame) throws MalformedPacketException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        long length = BinaryPacketCodec.peekVarLong(buffer);
+        assertEquals(buffer.remaining(), length);
+        Packet packet = BinaryPacketCodec.decode(buffer);
+        assertEquals(0, buffer.remaining());
+        return packet;
+    }
+
+    private static ByteBuffer body(int... bytes) {
+        byte[] body = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            body[i] = (byte) bytes[i];
+        }
+        return ByteBuffer.wrap(body);
+    }
+
+    private static void assertMalformed(ByteBuffer body) {
+        try {
+            BinaryPacketCodec.decode(body);
+            fail("Decoded a malformed frame");
+        } catch (MalformedPacketException expected) {
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package packet;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JsonPacketParserTest {
+
+    @Test
+    public void parsesWhatGsonEncodes() throws MalformedPacketException {
+        Packet packet = new Packet();
+        packet.setType(PacketType.PRIVATE);
+        packet.setTimestamp(1_500_000_000_000L);
+        packet.setNickname("alice");
+        packet.setMessage("\u043f\u0440\u0438\u0432\u0435\u0442 \ud83d\ude00");
+        packet.setUsers(Arrays.asList("alice", "bob"));
+        packet.setFeatures(Collections.singletonList(ProtocolFeature.BINARY));
+        packet.setRosterVersion(42);
+        packet.setSequence(Long.MAX_VALUE);
+        packet.setRoom("room");
+        packet.setRooms(Arrays.asList(Packet.DEFAULT_ROOM, "room"));
+        packet.setRecipient("bob");
+        packet.setReconnectDelayMillis(1500);
+        packet.setSearchCursor(Long.MIN_VALUE);
+
+        Packet decoded = decodeLine(JsonPacketCodec.encode(packet));
+
+        assertEquals(packet.getType(), decoded.getType());
+        assertEquals(packet.getTimestamp(), decoded.getTimestamp());
+        assertEquals(packet.getNickname(), decoded.getNickname());
+        assertEquals(packet.getMessage(), decoded.getMessage());
+        assertEquals(packet.getUsers(), decoded.getUsers());
+        assertEquals(packet.getFeatures(), decoded.getFeatures());
+        assertEquals(packet.getRosterVersion(), decoded.getRosterVersion());
+        assertEquals(packet.getSequence(), decoded.getSequence());
+        assertEquals(packet.getRoom(), decoded.getRoom());
+        assertEquals(packet.getRooms(), decoded.getRooms());
+        assertEquals(packet.getRecipient(), decoded.getRecipient());
+        assertEquals(packet.getReconnectDelayMillis(), decoded.getReconnectDelayMillis());
+        assertEquals(packet.getSearchCursor(), decoded.getSearchCursor());
+    }
+
+    @Test
+    public void parsesEveryTypeGsonEncodes() throws MalformedPacketException {
+        for (PacketType type : PacketType.values()) {
+            Packet packet = new Packet();
+            packet.setType(type);
+            assertEquals(type, decodeLine(JsonPacketCodec.encode(packet)).getType());
+        }
+    }
+
+    @Test
+    public void unescapesWhatGsonEscapes() throws MalformedPacketException {
+        // Gson escapes quotes, backslashes, control characters and HTML characters
+        String message = "\"quoted\" back\\slash\ttab\nline\r\b\f\u0001 <a href='x'>&amp;</a> =";
+        Packet packet = new Packet();
+        packet.setMessage(message);
+
+        assertEquals(message, decodeLine(JsonPacketCodec.encode(packet)).getMessage());
+    }
+
+    @Test
+    public void parsesEveryEscape() throws MalformedPacketException {
+        Packet packet = parse("{\"message\":\"\\\" \\\\ \\/ \\b \\f \\n \\r \\t \\u0041\\u00e9\\u20ac\"}");
+        assertEquals("\" \\ / \b \f \n \r \t A\u00e9\u20ac", packet.getMessage());
+    }
+
+    @Test
+    public void parsesEscapedSurrogatePairs() throws MalformedPacketException {
+        assertEquals("a\ud83d\ude00b", parse("{\"message\":\"a\\ud83d\\ude00b\"}").getMessage());
+    }
+
+    @Test
+    public void replacesUnpairedSurrogates() throws MalformedPacketException {
+        assertEquals("?x", parse("{\"message\":\"\\ud83dx\"}").getMessage());
+        assertEquals("?", parse("{\"message\":\"\\ude00\"}").getMessage());
+        assertEquals("??", parse("{\"message\":\"\\ud83d\\ud83d\"}").getMessage());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws MalformedPacketException {
+        Packet packet = parse("{\"date\":\"12:00\",\"type\":\"CHAT\",\"extra\":{\"a\":[1,{\"b\":\"}]\"}],\"c\":null},"
+                + "\"flag\":true,\"number\":-1.5e3,\"list\":[\"x\",\"y\"],\"message\":\"hi\",\"last\":null}");
+        assertEquals(PacketType.CHAT, packet.getType());
+        assertEquals("hi", packet.getMessage());
+    }
+
+    @Test
+    public void parsesNullsAsUnset() throws MalformedPacketException {
+        Packet packet = parse("{\"nickname\":null,\"message\":null,\"users\":null,\"rooms\":null,\"users\":[null]}");
+        assertNull(packet.getNickname());
+        assertNull(packet.getMessage());
+        assertNull(packet.getRooms());
+        assertEquals(Collections.singletonList(null), packet.getUsers());
+    }
+
+    @Test
+    public void allowsWhitespaceBetweenTokens() throws MalformedPacketException {
+        Packet packet = parse(" {\r\n\t\"type\" : \"LOGIN\" ,\n \"users\" : [ \"a\" , \"b\" ] , \"sequence\" : 7 } \t");
+        assertEquals(PacketType.LOGIN, packet.getType());
+        assertEquals(Arrays.asList("a", "b"), packet.getUsers());
+        assertEquals(7, packet.getSequence());
+    }
+
+    @Test
+    public void parsesEmptyObject() throws MalformedPacketException {
+        Packet packet = parse("{}");
+        assertEquals(new Packet().getType(), packet.getType());
+        assertNull(packet.getMessage());
+    }
+
+    @Test
+    public void parsesTheWholeLongRange() throws MalformedPacketException {
+        assertEquals(Long.MAX_VALUE, parse("{\"sequence\":9223372036854775807}").getSequence());
+        assertEquals(Long.MIN_VALUE, parse("{\"sequence\":-9223372036854775808}").getSequence());
+        assertEquals(Long.MAX_VALUE - 1, parse("{\"sequence\":9223372036854775806}").getSequence());
+        assertEquals(0, parse("{\"sequence\":-0}").getSequence());
+    }
+
+    @Test
+    public void rejectsNumberOverflow() {
+        assertMalformed("{\"sequence\":9223372036854775808}");
+        assertMalformed("{\"sequence\":-9223372036854775809}");
+        assertMalformed("{\"sequence\":10000000000000000000}");
+        assertMalformed("{\"sequence\":99999999999999999999}");
+    }
+
+    @Test
+    public void rejectsTrailingData() {
+        assertMalformed("{\"type\":\"CHAT\"}x");
+        assertMalformed("{\"type\":\"CHAT\"}{\"type\":\"CHAT\"}");
+    }
+
+    @Test
+    public void rejectsMalformedPackets() {
+        assertMalformed("");
+        assertMalformed("[]");
+        assertMalformed("{\"type\":\"CHAT\"");
+        assertMalformed("{\"type\":\"CHAT\",}");
+        assertMalformed("{\"type\" \"CHAT\"}");
+        assertMalformed("{\"type\":\"NO_SUCH_TYPE\"}");
+        assertMalformed("{\"type\":null}");
+        assertMalformed("{\"sequence\":\"1\"}");
+        assertMalformed("{\"sequence\":-}");
+        assertMalformed("{\"message\":\"unterminated}");
+        assertMalformed("{\"message\":\"\\x\"}");
+        assertMalformed("{\"message\":\"\\u12\"}");
+        assertMalformed("{\"users\":[\"a\" \"b\"]}");
+        assertMalformed("{\"extra\":}");
+    }
+
+    private static Packet decodeLine(byte[] line) throws MalformedPacketException {
+        assertEquals('\n', line[line.length - 1]);
+        return JsonPacketCodec.decode(line, 0, line.length - 1);
+    }
+
+    private static Packet parse(String json) throws MalformedPacketException {
+        // Parsed from the middle of a buffer, as the decoder does
+        byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[utf8.length + 2];
+        bytes[0] = '}';
+        System.arraycopy(utf8, 0, bytes, 1, utf8.length);
+        bytes[bytes.length - 1] = '{';
+        return new JsonPacketParser().parse(bytes, 1, utf8.length);
+    }
+
+    private static void assertMalformed(String json) {
+        try {
+            parse(json);
+            fail("Parsed " + json);
+        } catch (MalformedPacketException expected) {
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package loadgen;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.WireFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+class LoadConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadConfig.class);
+    private static final String PROPERTIES_FILE_NAME = "loadgen.properties";
+    private String serverHost = "localhost";
+    private int serverPort = 8228;
+    private int clients = 1000;
+    private int rampUpSeconds = 10;
+    private int durationSeconds = 60;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private long chatIntervalMillis = 1000;
+    private int messageSize = 64;
+    private double logoutPercent;
+    private long reconnectDelayMillis = 1000;
+    private WireFormat wireFormat = WireFormat.BINARY;
+    private boolean isPresence = true;
+    private String nicknamePrefix = "load";
+    private int rooms;
+    private int reportIntervalSeconds = 5;
+    private String histogramFile;
+
+    /**
+     * Reads loadgen.properties from the classpath, then applies KEY=VALUE overrides from the command line.
+     */
+    static LoadConfig load(String[] args) {
+        Properties properties = new Properties();
+        try (InputStream inputStream = LoadConfig.class.getClassLoader().getResourceAsStream(PROPERTIES_FILE_NAME)) {
+            if (inputStream != null) {
+                properties.load(inputStream);
+            }
+        } catch (IOException e) {
+            log.error("Failed to load {}", PROPERTIES_FILE_NAME, e);
+        }
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected KEY=VALUE, got " + arg);
+            }
+            properties.setProperty(arg.substring(0, separator).trim().toUpperCase(), arg.substring(separator + 1));
+        }
+
+        LoadConfig config = new LoadConfig();
+        config.setServerHost(value(properties, "SERVER_HOST", config.getServerHost()));
+        config.setServerPort(Integer.parseInt(value(properties, "SERVER_PORT", String.valueOf(config.getServerPort()))));
+        config.setClients(Integer.parseInt(value(properties, "CLIENTS", String.valueOf(config.getClients()))));
+        config.setRampUpSeconds(Integer.parseInt(
+                value(properties, "RAMP_UP_SECONDS", String.valueOf(config.getRampUpSeconds()))));
+        config.setDurationSeconds(Integer.parseInt(
+                value(properties, "DURATION_SECONDS", String.valueOf(config.getDurationSeconds()))));
+        int eventLoopThreads = Integer.parseInt(value(properties, "EVENT_LOOP_THREADS", "0"));
+        if (eventLoopThreads > 0) {
+            config.setEventLoopThreads(eventLoopThreads);
+        }
+        config.setChatIntervalMillis(Long.parseLong(
+                value(properties, "CHAT_INTERVAL_MILLIS", String.valueOf(config.getChatIntervalMillis()))));
+        config.setMessageSize(Integer.parseInt(value(properties, "MESSAGE_SIZE", String.valueOf(config.getMessageSize()))));
+        config.setLogoutPercent(Double.parseDouble(
+                value(properties, "LOGOUT_PERCENT", String.valueOf(config.getLogoutPercent()))));
+        config.setReconnectDelayMillis(Long.parseLong(
+                value(properties, "RECONNECT_DELAY_MILLIS", String.valueOf(config.getReconnectDelayMillis()))));
+        config.setWireFormat(WireFormat.valueOf(
+                value(properties, "WIRE_FORMAT", config.getWireFormat().name()).toUpperCase()));
+        config.setPresence(Boolean.parseBoolean(value(properties, "PRESENCE", String.valueOf(config.isPresence()))));
+        config.setNicknamePrefix(value(properties, "NICKNAME_PREFIX", config.getNicknamePrefix()));
+        config.setRooms(Integer.parseInt(value(properties, "ROOMS", String.valueOf(config.getRooms()))));
+        config.setReportIntervalSeconds(Integer.parseInt(
+                value(properties, "REPORT_INTERVAL_SECONDS", String.valueOf(config.getReportIntervalSeconds()))));
+        config.setHistogramFile(value(properties, "HISTOGRAM_FILE", null));
+        return config;
+    }
+
+    private static String value(Properties properties, String key, String defaultValue) {
+        String propertyValue = properties.getProperty(key);
+        if (propertyValue == null || propertyValue.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return propertyValue.trim();
+    }
+
+    String getServerHost() {
+        return serverHost;
+    }
+
+    void setServerHost(String serverHost) {
+        this.serverHost = serverHost;
+    }
+
+    int getServerPort() {
+        return serverPort;
+    }
+
+    void setServerPort(int serverPort) {
+        this.serverPort = serverPort;
+    }
+
+    int getClients() {
+        return clients;
+    }
+
+    void setClients(int clients) {
+        this.clients = clients;
+    }
+
+    int getRampUpSeconds() {
+        return rampUpSeconds;
+    }
+
+    void setRampUpSeconds(int rampUpSeconds) {
+        this.rampUpSeconds = rampUpSeconds;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    void setDurationSeconds(int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    long getChatIntervalMillis() {
+        return chatIntervalMillis;
+    }
+
+    void setChatIntervalMillis(long chatIntervalMillis) {
+        this.chatIntervalMillis = chatIntervalMillis;
+    }
+
+    int getMessageSize() {
+        return messageSize;
+    }
+
+    void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    double getLogoutPercent() {
+        return logoutPercent;
+    }
+
+    void setLogoutPercent(double logoutPercent) {
+        this.logoutPercent = logoutPercent;
+    }
+
+    long getReconnectDelayMillis() {
+        return reconnectDelayMillis;
+    }
+
+    void setReconnectDelayMillis(long reconnectDelayMillis) {
+        this.reconnectDelayMillis = reconnectDelayMillis;
+    }
+
+    WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    boolean isPresence() {
+        return isPresence;
+    }
+
+    void setPresence(boolean presence) {
+        isPresence = presence;
+    }
+
+    String getNicknamePrefix() {
+        return nicknamePrefix;
+    }
+
+    void setNicknamePrefix(String nicknamePrefix) {
+        this.nicknamePrefix = nicknamePrefix;
+    }
+
+    int getRooms() {
+        return rooms;
+    }
+
+    void setRooms(int rooms) {
+        this.rooms = rooms;
+    }
+
+    int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    void setReportIntervalSeconds(int reportIntervalSeconds) {
+        this.reportIntervalSeconds = reportIntervalSeconds;
+    }
+
+    String getHistogramFile() {
+        return histogramFile;
+    }
+
+    void setHistogramFile(String histogramFile) {
+        this.histogramFile = histogramFile;
+    }
+}
@@ -0,0 +1,166 @@
+package loadgen;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+class LoadEventLoop implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadEventLoop.class);
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final PriorityQueue<ScheduledTask> scheduledTasks;
+    private volatile Thread thread;
+    private volatile boolean isRunning;
+
+    LoadEventLoop() throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        scheduledTasks = new PriorityQueue<>();
+    }
+
+    void start(String name) {
+        isRunning = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        isRunning = false;
+        selector.wakeup();
+        thread.join();
+    }
+
+    SelectionKey register(SocketChannel channel, int interestOps, SimulatedClient client) throws ClosedChannelException {
+        return channel.register(selector, interestOps, client);
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    void schedule(Runnable task, long delayNanos) {
+        if (delayNanos <= 0) {
+            execute(task);
+            return;
+        }
+        ScheduledTask scheduledTask = new ScheduledTask(task, System.nanoTime() + delayNanos);
+        if (inEventLoop()) {
+            scheduledTasks.add(scheduledTask);
+        } else {
+            execute(() -> scheduledTasks.add(scheduledTask));
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isRunning) {
+                select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                runTasks();
+                runScheduledTasks();
+            }
+            runTasks();
+        } catch (IOException | ClosedSelectorException e) {
+            log.error("Event loop {} failed.", thread.getName(), e);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.error("Failed to close selector.", e);
+            }
+        }
+    }
+
+    private void select() throws IOException {
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+        ScheduledTask nextTask = scheduledTasks.peek();
+        if (nextTask == null) {
+            selector.select();
+            return;
+        }
+        long delayNanos = nextTask.deadline - System.nanoTime();
+        if (delayNanos <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+        }
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask scheduledTask;
+        while ((scheduledTask = scheduledTasks.peek()) != null && scheduledTask.deadline - now <= 0) {
+            scheduledTasks.poll();
+            scheduledTask.task.run();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        SimulatedClient client = (SimulatedClient) key.attachment();
+        if (!key.isValid()) {
+            client.onDisconnected();
+            return;
+        }
+        if (key.isConnectable()) {
+            client.onConnectable();
+            return;
+        }
+        if (key.isReadable()) {
+            client.onReadable();
+        }
+        if (key.isValid() && key.isWritable()) {
+            client.onWritable();
+        }
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+
+        private final Runnable task;
+        private final long deadline;
+
+        private ScheduledTask(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class LoadGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private final LoadConfig config;
+    private final PrintStream out;
+    private final LoadStats stats;
+    private final List<LoadEventLoop> eventLoops;
+    private final List<SimulatedClient> clients;
+
+    LoadGenerator(LoadConfig config, PrintStream out) {
+        this.config = config;
+        this.out = out;
+        stats = new LoadStats();
+        eventLoops = new ArrayList<>();
+        clients = new ArrayList<>();
+    }
+
+    void run() throws IOException, InterruptedException {
+        InetSocketAddress serverAddress = new InetSocketAddress(config.getServerHost(), config.getServerPort());
+        log.info("Starting {} clients against {}", config.getClients(), serverAddress);
+        for (int i = 0; i < config.getEventLoopThreads(); i++) {
+            LoadEventLoop eventLoop = new LoadEventLoop();
+            eventLoop.start("loadgen-loop-" + i);
+            eventLoops.add(eventLoop);
+        }
+        long rampUpNanos = TimeUnit.SECONDS.toNanos(config.getRampUpSeconds());
+        for (int i = 0; i < config.getClients(); i++) {
+            LoadEventLoop eventLoop = eventLoops.get(i % eventLoops.size());
+            String room = config.getRooms() > 0 ? "room" + i % config.getRooms() : null;
+            SimulatedClient client = new SimulatedClient(eventLoop, config, stats, serverAddress,
+                    config.getNicknamePrefix() + i, room);
+            clients.add(client);
+            eventLoop.schedule(client::connect, rampUpNanos * i / config.getClients());
+        }
+
+        Histogram deliveryLatency = new Histogram(3);
+        Histogram loginLatency = new Histogram(3);
+        Histogram interval = null;
+        out.printf("%8s %8s %10s %12s %9s %9s %9s %9s %8s %8s %6s%n", "time", "online", "sent/s", "delivered/s",
+                "p50 ms", "p99 ms", "p99.9 ms", "max ms", "logins", "rejected", "lost");
+        long reportIntervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getReportIntervalSeconds()));
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        long lastReportNanos = startNanos;
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long lastLogins = 0;
+        long lastRejected = 0;
+        long lastLost = 0;
+        while (lastReportNanos - endNanos < 0) {
+            long waitNanos = Math.min(lastReportNanos + reportIntervalNanos, endNanos) - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            long now = System.nanoTime();
+            double seconds = (now - lastReportNanos) / 1e9;
+            interval = stats.takeDeliveryLatency(interval);
+            deliveryLatency.add(interval);
+            loginLatency.add(stats.takeLoginLatency(null));
+            long sent = stats.getSentMessages();
+            long delivered = stats.getDeliveredMessages();
+            long logins = stats.getAcceptedLogins();
+            long rejected = stats.getRejectedLogins();
+            long lost = stats.getLostConnections();
+            out.printf("%7ds %8d %10.0f %12.0f %9.2f %9.2f %9.2f %9.2f %8d %8d %6d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - startNanos), stats.getOnlineClients(),
+                    (sent - lastSent) / seconds, (delivered - lastDelivered) / seconds,
+                    millis(interval, 50), millis(interval, 99), millis(interval, 99.9),
+                    interval.getMaxValue() / MICROS_PER_MILLI,
+                    logins - lastLogins, rejected - lastRejected, lost - lastLost);
+            lastReportNanos = now;
+            lastSent = sent;
+            lastDelivered = delivered;
+            lastLogins = logins;
+            lastRejected = rejected;
+            lastLost = lost;
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        stopClients();
+        deliveryLatency.add(stats.takeDeliveryLatency(interval));
+        loginLatency.add(stats.takeLoginLatency(null));
+        printSummary(elapsedSeconds, deliveryLatency, loginLatency);
+        writeHistogram(deliveryLatency);
+    }
+
+    private void stopClients() throws InterruptedException {
+        for (SimulatedClient client : clients) {
+            client.getEventLoop().execute(client::stop);
+        }
+        for (LoadEventLoop eventLoop : eventLoops) {
+            eventLoop.stop();
+        }
+    }
+
+    private void printSummary(double elapsedSeconds, Histogram deliveryLatency, Histogram loginLatency) {
+        out.println();
+        out.printf("Messages: sent %d (%.0f/s), delivered %d (%.0f/s) in %.1f s%n",
+                stats.getSentMessages(), stats.getSentMessages() / elapsedSeconds,
+                stats.getDeliveredMessages(), stats.getDeliveredMessages() / elapsedSeconds, elapsedSeconds);
+        out.printf("Delivery latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, p99.99 %.2f, max %.2f (%d samples)%n",
+                millis(deliveryLatency, 50), millis(deliveryLatency, 90), millis(deliveryLatency, 99),
+                millis(deliveryLatency, 99.9), millis(deliveryLatency, 99.99),
+                deliveryLatency.getMaxValue() / MICROS_PER_MILLI, deliveryLatency.getTotalCount());
+        out.printf("Login latency ms: p50 %.2f, p99 %.2f, p99.9 %.2f, max %.2f (%d samples)%n",
+                millis(loginLatency, 50), millis(loginLatency, 99), millis(loginLatency, 99.9),
+                loginLatency.getMaxValue() / MICROS_PER_MILLI, loginLatency.getTotalCount());
+        out.printf("Logins: accepted %d, rejected %d, logouts %d, connections lost %d, connect failures %d%n",
+                stats.getAcceptedLogins(), stats.getRejectedLogins(), stats.getLogouts(),
+                stats.getLostConnections(), stats.getFailedConnects());
+    }
+
+    private void writeHistogram(Histogram deliveryLatency) {
+        String histogramFile = config.getHistogramFile();
+        if (histogramFile == null) {
+            return;
+        }
+        try (PrintStream histogramOut = new PrintStream(histogramFile, "UTF-8")) {
+            deliveryLatency.outputPercentileDistribution(histogramOut, MICROS_PER_MILLI);
+        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+            log.error("Failed to write histogram to {}", histogramFile, e);
+        }
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
+    }
+}
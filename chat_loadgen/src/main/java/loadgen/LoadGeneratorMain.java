@@ -0,0 +1,9 @@
+package loadgen;
+
+public class LoadGeneratorMain {
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator(LoadConfig.load(args), System.out);
+        generator.run();
+    }
+}
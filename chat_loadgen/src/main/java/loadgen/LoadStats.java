@@ -0,0 +1,101 @@
+package loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+class LoadStats {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private final LongAdder sentMessages = new LongAdder();
+    private final LongAdder deliveredMessages = new LongAdder();
+    private final LongAdder acceptedLogins = new LongAdder();
+    private final LongAdder rejectedLogins = new LongAdder();
+    private final LongAdder logouts = new LongAdder();
+    private final LongAdder lostConnections = new LongAdder();
+    private final LongAdder failedConnects = new LongAdder();
+    private final LongAdder onlineClients = new LongAdder();
+    private final Recorder deliveryLatency = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder loginLatency = new Recorder(SIGNIFICANT_DIGITS);
+
+    void messageSent() {
+        sentMessages.increment();
+    }
+
+    void messageDelivered(long latencyNanos) {
+        deliveredMessages.increment();
+        deliveryLatency.recordValue(toMicros(latencyNanos));
+    }
+
+    void loginAccepted(long latencyNanos) {
+        acceptedLogins.increment();
+        onlineClients.increment();
+        loginLatency.recordValue(toMicros(latencyNanos));
+    }
+
+    void loginRejected() {
+        rejectedLogins.increment();
+    }
+
+    void loggedOut() {
+        logouts.increment();
+        onlineClients.decrement();
+    }
+
+    void connectionLost(boolean wasOnline) {
+        lostConnections.increment();
+        if (wasOnline) {
+            onlineClients.decrement();
+        }
+    }
+
+    void connectFailed() {
+        failedConnects.increment();
+    }
+
+    long getSentMessages() {
+        return sentMessages.sum();
+    }
+
+    long getDeliveredMessages() {
+        return deliveredMessages.sum();
+    }
+
+    long getAcceptedLogins() {
+        return acceptedLogins.sum();
+    }
+
+    long getRejectedLogins() {
+        return rejectedLogins.sum();
+    }
+
+    long getLogouts() {
+        return logouts.sum();
+    }
+
+    long getLostConnections() {
+        return lostConnections.sum();
+    }
+
+    long getFailedConnects() {
+        return failedConnects.sum();
+    }
+
+    long getOnlineClients() {
+        return onlineClients.sum();
+    }
+
+    Histogram takeDeliveryLatency(Histogram recycle) {
+        return deliveryLatency.getIntervalHistogram(recycle);
+    }
+
+    Histogram takeLoginLatency(Histogram recycle) {
+        return loginLatency.getIntervalHistogram(recycle);
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
@@ -0,0 +1,338 @@
+package loadgen;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.Packet;
+import packet.PacketDecoder;
+import packet.PacketType;
+import packet.ProtocolFeature;
+import packet.WireFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+class SimulatedClient {
+
+    private static final Logger log = LoggerFactory.getLogger(SimulatedClient.class);
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private final LoadEventLoop eventLoop;
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final InetSocketAddress serverAddress;
+    private final String nickname;
+    private final String room;
+    private final String messageBody;
+    private final long chatIntervalNanos;
+    private final PacketDecoder decoder;
+    private final Deque<ByteBuffer> pendingWrites;
+    private ByteBuffer readBuffer;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private WireFormat wireFormat;
+    private State state;
+    private int session;
+    private long loginStartNanos;
+    private long nextChatNanos;
+    private boolean isStopped;
+
+    private enum State {
+        DISCONNECTED,
+        CONNECTING,
+        LOGGING_IN,
+        ONLINE
+    }
+
+    SimulatedClient(LoadEventLoop eventLoop, LoadConfig config, LoadStats stats,
+                    InetSocketAddress serverAddress, String nickname, String room) {
+        this.eventLoop = eventLoop;
+        this.config = config;
+        this.stats = stats;
+        this.serverAddress = serverAddress;
+        this.nickname = nickname;
+        this.room = room;
+        char[] body = new char[config.getMessageSize()];
+        Arrays.fill(body, 'x');
+        messageBody = new String(body);
+        chatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getChatIntervalMillis());
+        decoder = new PacketDecoder();
+        pendingWrites = new ArrayDeque<>();
+        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        wireFormat = WireFormat.JSON;
+        state = State.DISCONNECTED;
+    }
+
+    LoadEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    void connect() {
+        if (isStopped || state != State.DISCONNECTED) {
+            return;
+        }
+        session++;
+        state = State.CONNECTING;
+        loginStartNanos = System.nanoTime();
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (channel.connect(serverAddress)) {
+                key = eventLoop.register(channel, SelectionKey.OP_READ, this);
+                sendLogin();
+            } else {
+                key = eventLoop.register(channel, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            onConnectFailed(e);
+        }
+    }
+
+    void onConnectable() {
+        try {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            sendLogin();
+        } catch (IOException e) {
+            onConnectFailed(e);
+        }
+    }
+
+    void onReadable() {
+        try {
+            if (!readBuffer.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                grown.put(readBuffer);
+                readBuffer = grown;
+            }
+            if (channel.read(readBuffer) < 0) {
+                onDisconnected();
+                return;
+            }
+            readBuffer.flip();
+            Packet packet;
+            while (state != State.DISCONNECTED && (packet = decoder.decode(readBuffer)) != null) {
+                handlePacket(packet);
+            }
+            if (state != State.DISCONNECTED) {
+                readBuffer.compact();
+            }
+        } catch (IOException e) {
+            log.debug("Client {} failed to read.", nickname, e);
+            onDisconnected();
+        }
+    }
+
+    void onWritable() {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = pendingWrites.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                pendingWrites.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            log.debug("Client {} failed to write.", nickname, e);
+            onDisconnected();
+        }
+    }
+
+    void onDisconnected() {
+        if (state == State.DISCONNECTED) {
+            return;
+        }
+        stats.connectionLost(state == State.ONLINE);
+        close();
+        scheduleReconnect();
+    }
+
+    void stop() {
+        isStopped = true;
+        if (state == State.ONLINE) {
+            sendLogout();
+        }
+        close();
+    }
+
+    private void handlePacket(Packet packet) {
+        if (state == State.LOGGING_IN) {
+            if (packet.getType() == PacketType.LOGIN_REJECTED) {
+                stats.loginRejected();
+                close();
+                scheduleReconnect();
+                return;
+            }
+            wireFormat = WireFormat.negotiated(packet);
+            decoder.setWireFormat(wireFormat);
+            state = State.ONLINE;
+            stats.loginAccepted(System.nanoTime() - loginStartNanos);
+            startChatting();
+            return;
+        }
+        if (packet.getType() == PacketType.SERVER_SHUTDOWN) {
+            stats.connectionLost(true);
+            close();
+            scheduleReconnect(packet.getReconnectDelayMillis());
+            return;
+        }
+        if (packet.getType() == PacketType.CHAT && packet.getMessage() != null) {
+            long sentNanos = parseSentNanos(packet.getMessage());
+            if (sentNanos != 0) {
+                stats.messageDelivered(System.nanoTime() - sentNanos);
+            }
+        }
+    }
+
+    private void startChatting() {
+        if (chatIntervalNanos <= 0) {
+            return;
+        }
+        nextChatNanos = System.nanoTime() + ThreadLocalRandom.current().nextLong(chatIntervalNanos);
+        scheduleChat();
+    }
+
+    private void scheduleChat() {
+        int chatSession = session;
+        eventLoop.schedule(() -> onChatTick(chatSession), nextChatNanos - System.nanoTime());
+    }
+
+    private void onChatTick(int chatSession) {
+        if (chatSession != session || state != State.ONLINE) {
+            return;
+        }
+        if (ThreadLocalRandom.current().nextDouble(100) < config.getLogoutPercent()) {
+            sendLogout();
+            close();
+            scheduleReconnect();
+            return;
+        }
+        Packet chat = new Packet();
+        chat.setType(PacketType.CHAT);
+        chat.setNickname(nickname);
+        chat.setRoom(room);
+        // Stamp the intended send time rather than the actual one, so a stalled event loop shows up as latency
+        chat.setMessage(nextChatNanos + " " + messageBody);
+        write(chat);
+        stats.messageSent();
+        nextChatNanos += chatIntervalNanos;
+        if (state == State.ONLINE) {
+            scheduleChat();
+        }
+    }
+
+    private void sendLogin() {
+        List<String> features = new ArrayList<>();
+        if (config.getWireFormat() != WireFormat.LEGACY_JSON) {
+            features.add(ProtocolFeature.TIMESTAMP);
+        }
+        if (!config.getWireFormat().isJson()) {
+            features.add(ProtocolFeature.BINARY);
+        }
+        if (config.getWireFormat() == WireFormat.BINARY_DEFLATE) {
+            features.add(ProtocolFeature.DEFLATE);
+        }
+        if (config.isPresence()) {
+            features.add(ProtocolFeature.PRESENCE);
+        }
+        Packet login = new Packet();
+        login.setType(PacketType.LOGIN);
+        login.setNickname(nickname);
+        login.setFeatures(features);
+        if (room != null) {
+            login.setRooms(Collections.singletonList(room));
+        }
+        state = State.LOGGING_IN;
+        write(login);
+    }
+
+    private void sendLogout() {
+        Packet logout = new Packet();
+        logout.setType(PacketType.LOGOUT);
+        logout.setNickname(nickname);
+        stats.loggedOut();
+        state = State.DISCONNECTED;
+        write(logout);
+    }
+
+    private void write(Packet packet) {
+        ByteBuffer buffer = ByteBuffer.wrap(wireFormat.encode(packet));
+        if (!pendingWrites.isEmpty()) {
+            pendingWrites.add(buffer);
+            return;
+        }
+        try {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                pendingWrites.add(buffer);
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            log.debug("Client {} failed to write.", nickname, e);
+            onDisconnected();
+        }
+    }
+
+    private void onConnectFailed(IOException e) {
+        log.debug("Client {} failed to connect.", nickname, e);
+        stats.connectFailed();
+        close();
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        scheduleReconnect(config.getReconnectDelayMillis());
+    }
+
+    private void scheduleReconnect(long delayMillis) {
+        if (!isStopped) {
+            eventLoop.schedule(this::connect, TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        }
+    }
+
+    private void close() {
+        state = State.DISCONNECTED;
+        if (key != null) {
+            key.cancel();
+            key = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Client {} failed to close channel.", nickname, e);
+            }
+            channel = null;
+        }
+        pendingWrites.clear();
+        readBuffer.clear();
+        decoder.setWireFormat(WireFormat.JSON);
+        wireFormat = WireFormat.JSON;
+    }
+
+    private static long parseSentNanos(String message) {
+        int separator = message.indexOf(' ');
+        if (separator <= 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(message.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package server;
+
+import packet.WireFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+abstract class AbstractConnection implements Connection {
+
+    private final Object handshakeLock = new Object();
+    private final ConnectionMetrics metrics;
+    private final TokenBucket rateLimitNotices = new TokenBucket(1, 1);
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private volatile List<EncodedPacket> pendingPackets;
+    private volatile String nickname;
+    private volatile List<String> features = Collections.emptyList();
+    private volatile ReplayCursor replay;
+    private volatile long replayedThrough;
+
+    AbstractConnection(ServerMetrics serverMetrics) {
+        metrics = serverMetrics.newConnectionMetrics();
+    }
+
+    @Override
+    public String getNickname() {
+        return nickname;
+    }
+
+    @Override
+    public void setNickname(String nickname) {
+        this.nickname = nickname;
+    }
+
+    @Override
+    public boolean hasFeature(String feature) {
+        return features.contains(feature);
+    }
+
+    @Override
+    public void setFeatures(List<String> features) {
+        this.features = features;
+    }
+
+    @Override
+    public boolean isLegacy() {
+        return features.isEmpty();
+    }
+
+    @Override
+    public Set<String> getRooms() {
+        return rooms;
+    }
+
+    @Override
+    public void beginHandshake() {
+        synchronized (handshakeLock) {
+            pendingPackets = new ArrayList<>();
+        }
+    }
+
+    @Override
+    public void completeHandshake(EncodedPacket response, WireFormat wireFormat, ReplayCursor replay) {
+        synchronized (handshakeLock) {
+            // Broadcasters holding the broadcast lock may be waiting for the handshake lock
+            this.replay = replay;
+            enqueue(response, false);
+            setWireFormat(wireFormat);
+            if (pendingPackets != null) {
+                for (EncodedPacket packet : pendingPackets) {
+                    enqueue(packet, false);
+                }
+            }
+            pendingPackets = null;
+        }
+    }
+
+    /**
+     * @return true between the start of a login and its response
+     */
+    boolean isHandshaking() {
+        return pendingPackets != null;
+    }
+
+    @Override
+    public void send(EncodedPacket packet) {
+        send(packet, true);
+    }
+
+    @Override
+    public void sendWithoutBlocking(EncodedPacket packet) {
+        send(packet, false);
+    }
+
+    private void send(EncodedPacket packet, boolean mayBlock) {
+        if (pendingPackets != null) {
+            synchronized (handshakeLock) {
+                if (pendingPackets != null) {
+                    pendingPackets.add(packet);
+                    return;
+                }
+            }
+        }
+        enqueue(packet, mayBlock);
+    }
+
+    @Override
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public TokenBucket getRateLimitNotices() {
+        return rateLimitNotices;
+    }
+
+    /**
+     * Called by the writer after each written packet.
+     *
+     * @return the replay to write right after this packet, or null
+     */
+    ReplayCursor replayAfter(EncodedPacket packet) {
+        ReplayCursor cursor = replay;
+        return cursor != null && cursor.isTriggeredBy(packet) ? cursor : null;
+    }
+
+    void finishReplay(ReplayCursor cursor) {
+        replayedThrough = cursor.getLastSequence();
+        replay = null;
+        metrics.replayed(cursor.getReplayedPackets());
+    }
+
+    /**
+     * @return true if the packet was queued while the replay was being prepared and has already been written by it
+     */
+    boolean isReplayed(EncodedPacket packet) {
+        long sequence = packet.getSequence();
+        return sequence > 0 && sequence <= replayedThrough;
+    }
+
+    /**
+     * @param mayBlock false if the caller holds a lock, see {@link OutboundQueue#offer(EncodedPacket, boolean)}
+     */
+    abstract void enqueue(EncodedPacket packet, boolean mayBlock);
+}
@@ -0,0 +1,234 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.Packet;
+import packet.PacketType;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Joins the server to other nodes over a {@link MessageBus}: relays chat, room notices and presence between them
+ * and keeps nicknames unique across the cluster.
+ * <p>
+ * Every nickname has an owner node chosen by rendezvous hashing over the live nodes, which arbitrates reservations
+ * of that nickname alone, so logins of different nicknames never wait for each other. Sequences stay per node:
+ * a client resuming with the last sequence it has seen has to reconnect to the same node.
+ */
+class Cluster implements MessageBus.Listener {
+
+    private static final Logger log = LoggerFactory.getLogger(Cluster.class);
+    private final Server server;
+    private final MessageBus bus;
+    private final long reserveTimeoutMillis;
+    // Nickname to the node holding it, arbitrated by the owners of the nicknames
+    private final ConcurrentMap<String, String> reservations;
+    // Users logged in on other nodes
+    private final ConcurrentMap<String, String> remoteUsers;
+    private final ConcurrentMap<String, Consumer<Boolean>> pendingReservations;
+    private ScheduledExecutorService timer;
+
+    Cluster(Server server, MessageBus bus) {
+        this.server = server;
+        this.bus = bus;
+        reserveTimeoutMillis = server.getConfig().getClusterReserveTimeoutMillis();
+        reservations = new ConcurrentHashMap<>();
+        remoteUsers = new ConcurrentHashMap<>();
+        pendingReservations = new ConcurrentHashMap<>();
+    }
+
+    void start() throws IOException {
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        bus.start(this);
+    }
+
+    void close() {
+        bus.close();
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Reserves a nickname already registered locally across the cluster.
+     *
+     * @param callback invoked exactly once with the outcome, on a bus or timer thread if the owner is another node
+     */
+    void reserve(String nickname, Consumer<Boolean> callback) {
+        String owner = ownerOf(nickname);
+        if (owner.equals(bus.getNodeId())) {
+            callback.accept(tryReserve(nickname, owner));
+            return;
+        }
+        pendingReservations.put(nickname, callback);
+        timer.schedule(() -> {
+            if (pendingReservations.remove(nickname, callback)) {
+                log.warn("Reservation of nickname {} on node {} timed out", nickname, owner);
+                callback.accept(false);
+            }
+        }, reserveTimeoutMillis, TimeUnit.MILLISECONDS);
+        bus.send(owner, MessageBus.MessageType.RESERVE, newPresence(PacketType.LOGIN, nickname));
+    }
+
+    void userJoined(Packet login) {
+        reservations.put(login.getNickname(), bus.getNodeId());
+        bus.publish(MessageBus.MessageType.RELAY, newPresence(PacketType.USER_JOINED, login));
+    }
+
+    void userLeft(Packet logout) {
+        reservations.remove(logout.getNickname(), bus.getNodeId());
+        bus.publish(MessageBus.MessageType.RELAY, newPresence(PacketType.USER_LEFT, logout));
+    }
+
+    /**
+     * Gives up a reservation of a login that was rejected or abandoned, other nodes never saw the user joining.
+     */
+    void release(String nickname) {
+        userLeft(newPresence(PacketType.LOGOUT, nickname));
+    }
+
+    void relay(Packet packet) {
+        bus.publish(MessageBus.MessageType.RELAY, packet);
+    }
+
+    /**
+     * @return false if the recipient is not logged in on another node
+     */
+    boolean sendPrivate(Packet packet) {
+        String nodeId = remoteUsers.get(packet.getRecipient());
+        if (nodeId == null) {
+            return false;
+        }
+        bus.send(nodeId, MessageBus.MessageType.RELAY, packet);
+        return true;
+    }
+
+    Set<String> getRemoteUsers() {
+        return remoteUsers.keySet();
+    }
+
+    int getNodeCount() {
+        return bus.getNodes().size();
+    }
+
+    @Override
+    public void onMessage(String nodeId, MessageBus.MessageType type, Packet packet) {
+        switch (type) {
+            case RELAY:
+                handleRelay(nodeId, packet);
+                break;
+            case RESERVE:
+                bus.send(nodeId, tryReserve(packet.getNickname(), nodeId)
+                        ? MessageBus.MessageType.RESERVED : MessageBus.MessageType.RESERVE_REJECTED, packet);
+                break;
+            case RESERVED:
+                completeReservation(packet.getNickname(), true);
+                break;
+            case RESERVE_REJECTED:
+                completeReservation(packet.getNickname(), false);
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public void onNodeUp(String nodeId) {
+        for (String nickname : server.getConnectionsMap().keySet()) {
+            bus.send(nodeId, MessageBus.MessageType.RELAY, newPresence(PacketType.USER_JOINED, nickname));
+        }
+    }
+
+    @Override
+    public void onNodeDown(String nodeId) {
+        reservations.values().removeIf(nodeId::equals);
+        for (Map.Entry<String, String> user : remoteUsers.entrySet()) {
+            if (user.getValue().equals(nodeId) && remoteUsers.remove(user.getKey(), nodeId)) {
+                server.getPresence().broadcastRemote(newPresence(PacketType.USER_LEFT, user.getKey()));
+            }
+        }
+    }
+
+    private void handleRelay(String nodeId, Packet packet) {
+        String nickname = packet.getNickname();
+        switch (packet.getType()) {
+            case USER_JOINED:
+                reservations.put(nickname, nodeId);
+                if (remoteUsers.put(nickname, nodeId) == null) {
+                    server.getPresence().broadcastRemote(packet);
+                }
+                break;
+            case USER_LEFT:
+                reservations.remove(nickname, nodeId);
+                if (remoteUsers.remove(nickname, nodeId)) {
+                    server.getPresence().broadcastRemote(packet);
+                }
+                break;
+            default:
+                server.getPacketHandler().handleRelayed(packet);
+        }
+    }
+
+    private boolean tryReserve(String nickname, String nodeId) {
+        String holder = reservations.putIfAbsent(nickname, nodeId);
+        return holder == null || holder.equals(nodeId);
+    }
+
+    private void completeReservation(String nickname, boolean isReserved) {
+        Consumer<Boolean> callback = pendingReservations.remove(nickname);
+        if (callback != null) {
+            callback.accept(isReserved);
+        } else if (isReserved && !server.getConnectionsMap().containsKey(nickname)) {
+            // The reservation has timed out meanwhile
+            release(nickname);
+        }
+    }
+
+    /**
+     * Rendezvous hashing: every node computes the same owner from the same set of live nodes, and a node going away
+     * only moves the nicknames it owned.
+     */
+    private String ownerOf(String nickname) {
+        String owner = null;
+        long ownerScore = 0;
+        for (String node : bus.getNodes()) {
+            long score = mix(node.hashCode() * 0x9E3779B97F4A7C15L + nickname.hashCode());
+            if (owner == null || score > ownerScore) {
+                owner = node;
+                ownerScore = score;
+            }
+        }
+        return owner;
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static Packet newPresence(PacketType type, String nickname) {
+        Packet packet = new Packet();
+        packet.setType(type);
+        packet.setNickname(nickname);
+        packet.setTimestamp(System.currentTimeMillis());
+        return packet;
+    }
+
+    private static Packet newPresence(PacketType type, Packet source) {
+        Packet packet = newPresence(type, source.getNickname());
+        packet.setTimestamp(source.getTimestamp());
+        return packet;
+    }
+}
@@ -0,0 +1,73 @@
+package server;
+
+import packet.Packet;
+import packet.WireFormat;
+
+import java.util.List;
+import java.util.Set;
+
+interface Connection {
+
+    String getNickname();
+
+    void setNickname(String nickname);
+
+    /**
+     * @return the IP address of the client, used to limit its packets by address
+     */
+    String getRemoteAddress();
+
+    boolean hasFeature(String feature);
+
+    void setFeatures(List<String> features);
+
+    /**
+     * @return true if the client negotiated no features: clients older than negotiation only know the LOGIN,
+     * LOGIN_REJECTED, CHAT and LOGOUT packets and stop reading on any other type
+     */
+    boolean isLegacy();
+
+    /**
+     * @return the rooms the connection is subscribed to, maintained by {@link Rooms}
+     */
+    Set<String> getRooms();
+
+    void setWireFormat(WireFormat wireFormat);
+
+    /**
+     * Runs the task on the thread decoding the connection's packets, at once if called on it. The handshake
+     * switches the decoder to the negotiated wire format, so it completes there.
+     */
+    void execute(Runnable task);
+
+    void beginHandshake();
+
+    /**
+     * @param replay packets the client missed, written right after the response; null if there are none
+     */
+    void completeHandshake(EncodedPacket response, WireFormat wireFormat, ReplayCursor replay);
+
+    void send(EncodedPacket packet);
+
+    /**
+     * Like {@link #send}, but never waits for room in the outbound queue, for senders holding a lock.
+     */
+    void sendWithoutBlocking(EncodedPacket packet);
+
+    default void sendPacket(Packet packet) {
+        send(EncodedPacket.of(packet));
+    }
+
+    OutboundQueue getOutboundQueue();
+
+    ConnectionMetrics getMetrics();
+
+    /**
+     * @return the bucket throttling RATE_LIMITED notices sent to the client
+     */
+    TokenBucket getRateLimitNotices();
+
+    boolean isOpen();
+
+    void close();
+}
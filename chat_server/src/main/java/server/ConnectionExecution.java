@@ -0,0 +1,7 @@
+package server;
+
+enum ConnectionExecution {
+    THREAD,
+    VIRTUAL,
+    POOL
+}
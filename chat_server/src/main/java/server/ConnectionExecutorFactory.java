@@ -0,0 +1,63 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ConnectionExecutorFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionExecutorFactory.class);
+    private static final String THREAD_NAME_PREFIX = "connection-";
+    private static final String WRITER_THREAD_NAME_PREFIX = "connection-writer-";
+
+    ExecutorService create(ServerConfig config) {
+        switch (config.getConnectionExecution()) {
+            case VIRTUAL:
+                if (VirtualThreads.isSupported()) {
+                    log.info("Connections run on virtual threads");
+                    return VirtualThreads.newExecutor(THREAD_NAME_PREFIX);
+                }
+                log.warn("Virtual threads are not available on this JDK, falling back to a bounded pool");
+                return newBoundedPool(config.getConnectionPoolSize());
+            case POOL:
+                return newBoundedPool(config.getConnectionPoolSize());
+            case THREAD:
+            default:
+                return Executors.newCachedThreadPool(newThreadFactory(THREAD_NAME_PREFIX));
+        }
+    }
+
+    /**
+     * Writers wait on their outbound queues for as long as the connection is open, so they must not share a
+     * bounded pool with the readers: the readers of half as many clients as there are threads would leave no
+     * thread for any writer.
+     */
+    ExecutorService createWriters(ServerConfig config) {
+        if (config.getConnectionExecution() == ConnectionExecution.VIRTUAL && VirtualThreads.isSupported()) {
+            return VirtualThreads.newExecutor(WRITER_THREAD_NAME_PREFIX);
+        }
+        return Executors.newCachedThreadPool(newThreadFactory(WRITER_THREAD_NAME_PREFIX));
+    }
+
+    /**
+     * A reader holds its thread until the client disconnects, so a queued connection could wait forever. The pool
+     * queues nothing: a connection finding every thread busy is rejected, and the acceptor closes it.
+     */
+    private ExecutorService newBoundedPool(int poolSize) {
+        log.info("Connections run on a pool of {} threads", poolSize);
+        return new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), newThreadFactory(THREAD_NAME_PREFIX));
+    }
+
+    private ThreadFactory newThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, namePrefix + counter.getAndIncrement());
+    }
+}
@@ -0,0 +1,215 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.Packet;
+import packet.PacketReader;
+import packet.WireFormat;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionHandler extends AbstractConnection implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(Server.class);
+    private final Server server;
+    private final Socket clientSocket;
+    private final String remoteAddress;
+    private final OutboundQueue outboundQueue;
+    private final int coalesceMaxBytes;
+    private final long coalesceDelayNanos;
+    // Run by the reader while a login waits for its handshake
+    private final BlockingQueue<Runnable> tasks;
+    private volatile Thread readerThread;
+    private PacketReader reader;
+    private OutputStream outputStream;
+    private volatile WireFormat wireFormat;
+    private volatile Future<?> writer;
+
+    ConnectionHandler(Server server, Socket clientSocket) {
+        super(server.getMetrics());
+        this.server = server;
+        this.clientSocket = clientSocket;
+        remoteAddress = clientSocket.getInetAddress().getHostAddress();
+        wireFormat = WireFormat.JSON;
+        outboundQueue = server.newOutboundQueue();
+        coalesceMaxBytes = server.getConfig().getWriteCoalesceMaxBytes();
+        coalesceDelayNanos = TimeUnit.MICROSECONDS.toNanos(server.getConfig().getWriteCoalesceDelayMicros());
+        tasks = new LinkedBlockingQueue<>();
+    }
+
+    @Override
+    public void run() {
+        readerThread = Thread.currentThread();
+        try {
+            clientSocket.setTcpNoDelay(true);
+            reader = new PacketReader(new MeteredInputStream(clientSocket.getInputStream(), getMetrics()));
+            reader.setMaxFrameSize(server.getConfig().getMaxFrameBytes());
+            outputStream = new BufferedOutputStream(clientSocket.getOutputStream(), coalesceMaxBytes);
+            writer = server.getWriterExecutor().submit(this::writeOutboundQueue);
+            handleClientSocket();
+        } catch (IOException e) {
+            log.error("Failed to read client {} data", clientSocket.getRemoteSocketAddress(), e);
+        } finally {
+            close();
+            server.connectionClosed(this);
+            server.getMetrics().connectionClosed();
+            server.getPacketHandler().handleDisconnect(this);
+        }
+    }
+
+    private void handleClientSocket() throws IOException {
+        Packet packet;
+        while (!Thread.currentThread().isInterrupted() && (packet = reader.read()) != null) {
+            getMetrics().packetReceived();
+            if (acquire(packet)) {
+                server.getPacketHandler().handlePacket(this, packet);
+                awaitHandshake();
+            }
+        }
+    }
+
+    /**
+     * A login reserved across the cluster is answered from another thread. Nothing more is read until the response
+     * is queued and the reader has switched to the negotiated wire format.
+     */
+    private void awaitHandshake() {
+        try {
+            while (isHandshaking()) {
+                tasks.take().run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits while the rate limiter delays the packet, which also stops reading from the client.
+     *
+     * @return false if the packet was dropped
+     */
+    private boolean acquire(Packet packet) {
+        long delayNanos;
+        while ((delayNanos = server.getRateLimiter().acquire(this, packet)) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return delayNanos == 0;
+    }
+
+    private void writeOutboundQueue() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                EncodedPacket packet = outboundQueue.take();
+                long deadline = System.nanoTime() + coalesceDelayNanos;
+                int batchSize = 0;
+                int batchPackets = 0;
+                while (packet != null) {
+                    if (!isReplayed(packet)) {
+                        WireFormat packetFormat = wireFormat;
+                        packet.writeTo(outputStream, packetFormat);
+                        batchSize += packet.size(packetFormat);
+                        batchPackets++;
+                    }
+                    ReplayCursor replay = replayAfter(packet);
+                    if (replay != null) {
+                        writeReplay(replay);
+                    }
+                    if (batchSize >= coalesceMaxBytes || packet.isLast()) {
+                        break;
+                    }
+                    packet = outboundQueue.poll(deadline - System.nanoTime());
+                }
+                outputStream.flush();
+                getMetrics().packetsSent(batchPackets, batchSize);
+                if (packet != null && packet.isLast()) {
+                    // The client closes its side once it has read everything, which ends the reader
+                    clientSocket.shutdownOutput();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Failed to write to client {}", clientSocket.getRemoteSocketAddress(), e);
+            close();
+        }
+    }
+
+    /**
+     * Only one chunk of the replay is held in memory, the buffered stream flushes it to the socket as it fills up.
+     */
+    private void writeReplay(ReplayCursor replay) throws IOException {
+        int packets = 0;
+        long bytes = 0;
+        EncodedPacket packet;
+        while ((packet = replay.next()) != null) {
+            WireFormat packetFormat = wireFormat;
+            packet.writeTo(outputStream, packetFormat);
+            bytes += packet.size(packetFormat);
+            packets++;
+        }
+        finishReplay(replay);
+        getMetrics().packetsSent(packets, bytes);
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (Thread.currentThread() == readerThread) {
+            task.run();
+        } else {
+            tasks.add(task);
+        }
+    }
+
+    @Override
+    public void setWireFormat(WireFormat wireFormat) {
+        reader.setWireFormat(wireFormat);
+        this.wireFormat = wireFormat;
+    }
+
+    @Override
+    void enqueue(EncodedPacket packet, boolean mayBlock) {
+        packet.bytes(wireFormat);
+        if (!outboundQueue.offer(packet, mayBlock)) {
+            log.warn("Disconnecting slow client {}", clientSocket.getRemoteSocketAddress());
+            close();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !clientSocket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            log.error("Failed to close client socket.", e);
+        }
+        if (writer != null) {
+            writer.cancel(true);
+        }
+        outboundQueue.clear();
+    }
+}
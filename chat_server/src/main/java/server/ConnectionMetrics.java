@@ -0,0 +1,54 @@
+package server;
+
+class ConnectionMetrics {
+
+    private final ServerMetrics serverMetrics;
+    // Each direction is only ever updated by one thread: the reader or the writer of the connection
+    private volatile long packetsIn;
+    private volatile long bytesIn;
+    private volatile long packetsOut;
+    private volatile long bytesOut;
+
+    ConnectionMetrics(ServerMetrics serverMetrics) {
+        this.serverMetrics = serverMetrics;
+    }
+
+    void packetReceived() {
+        packetsIn++;
+        serverMetrics.packetReceived();
+    }
+
+    void bytesReceived(long bytes) {
+        bytesIn += bytes;
+        serverMetrics.bytesReceived(bytes);
+    }
+
+    void packetsSent(int packets, long bytes) {
+        if (packets == 0 && bytes == 0) {
+            return;
+        }
+        packetsOut += packets;
+        bytesOut += bytes;
+        serverMetrics.packetsSent(packets, bytes);
+    }
+
+    void replayed(int packets) {
+        serverMetrics.replayed(packets);
+    }
+
+    long getPacketsIn() {
+        return packetsIn;
+    }
+
+    long getBytesIn() {
+        return bytesIn;
+    }
+
+    long getPacketsOut() {
+        return packetsOut;
+    }
+
+    long getBytesOut() {
+        return bytesOut;
+    }
+}
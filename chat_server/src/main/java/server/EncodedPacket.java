@@ -0,0 +1,113 @@
+package server;
+
+import packet.DeflateCodec;
+import packet.Packet;
+import packet.WireFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+final class EncodedPacket {
+
+    private static final byte[] NO_BYTES = new byte[0];
+    private final Packet packet;
+    private final WireFormat pinnedFormat;
+    private final boolean isLast;
+    private volatile byte[] json;
+    private volatile byte[] legacyJson;
+    private volatile byte[] binary;
+    private volatile byte[] deflated;
+
+    private EncodedPacket(Packet packet, WireFormat pinnedFormat, boolean isLast) {
+        this.packet = packet;
+        this.pinnedFormat = pinnedFormat;
+        this.isLast = isLast;
+    }
+
+    static EncodedPacket of(Packet packet) {
+        return new EncodedPacket(packet, null, false);
+    }
+
+    static EncodedPacket handshake(Packet packet) {
+        return new EncodedPacket(packet, WireFormat.JSON, false);
+    }
+
+    /**
+     * The writer shuts down the output of the connection after this packet, packets queued behind it are not sent.
+     */
+    static EncodedPacket last(Packet packet) {
+        return new EncodedPacket(packet, null, true);
+    }
+
+    /**
+     * Shuts down the output like {@link #last} without writing anything, for clients that know no final packet.
+     */
+    static EncodedPacket end() {
+        return new EncodedPacket(null, null, true);
+    }
+
+    boolean isLast() {
+        return isLast;
+    }
+
+    long getSequence() {
+        return packet != null ? packet.getSequence() : 0;
+    }
+
+    String getRoom() {
+        return Rooms.roomOf(packet != null ? packet.getRoom() : null);
+    }
+
+    byte[] bytes(WireFormat wireFormat) {
+        if (packet == null) {
+            return NO_BYTES;
+        }
+        if (pinnedFormat != null) {
+            wireFormat = pinnedFormat;
+        }
+        if (wireFormat == WireFormat.BINARY_DEFLATE) {
+            byte[] bytes = deflated;
+            if (bytes == null) {
+                // Frames are compressed on their own, so one compression serves every connection
+                bytes = DeflateCodec.compress(bytes(WireFormat.BINARY));
+                deflated = bytes;
+            }
+            return bytes;
+        }
+        if (wireFormat == WireFormat.BINARY) {
+            byte[] bytes = binary;
+            if (bytes == null) {
+                bytes = wireFormat.encode(packet);
+                binary = bytes;
+            }
+            return bytes;
+        }
+        if (wireFormat == WireFormat.LEGACY_JSON) {
+            byte[] bytes = legacyJson;
+            if (bytes == null) {
+                bytes = wireFormat.encode(packet);
+                legacyJson = bytes;
+            }
+            return bytes;
+        }
+        byte[] bytes = json;
+        if (bytes == null) {
+            bytes = wireFormat.encode(packet);
+            json = bytes;
+        }
+        return bytes;
+    }
+
+    ByteBuffer asByteBuffer(WireFormat wireFormat) {
+        return ByteBuffer.wrap(bytes(wireFormat)).asReadOnlyBuffer();
+    }
+
+    void writeTo(OutputStream outputStream, WireFormat wireFormat) throws IOException {
+        outputStream.write(bytes(wireFormat));
+    }
+
+    int size(WireFormat wireFormat) {
+        return bytes(wireFormat).length;
+    }
+}
@@ -0,0 +1,49 @@
+package server;
+
+import packet.Packet;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Transport between the nodes of a cluster. Messages to one node are delivered in the order they were sent,
+ * messages sent while a node is unreachable are lost.
+ */
+interface MessageBus {
+
+    enum MessageType {
+        /** A packet handled on another node: chat, room notice or presence change */
+        RELAY,
+        /** Asks the owner of a nickname to reserve it for the sending node */
+        RESERVE,
+        RESERVED,
+        RESERVE_REJECTED
+    }
+
+    void start(Listener listener) throws IOException;
+
+    void close();
+
+    String getNodeId();
+
+    /**
+     * @return the reachable nodes including this one, sorted
+     */
+    List<String> getNodes();
+
+    void publish(MessageType type, Packet packet);
+
+    void send(String nodeId, MessageType type, Packet packet);
+
+    /**
+     * Called on the bus threads, messages from one node one at a time.
+     */
+    interface Listener {
+
+        void onMessage(String nodeId, MessageType type, Packet packet);
+
+        void onNodeUp(String nodeId);
+
+        void onNodeDown(String nodeId);
+    }
+}
@@ -0,0 +1,252 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.MalformedPacketException;
+import packet.Packet;
+import packet.PacketDecoder;
+import packet.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only history of sequenced CHAT packets. Broadcasting threads only enqueue the packet; a dedicated writer drains the queue in batches into memory-mapped {@link MessageLogSegment}s and forces
+ * them to disk at most once per flush interval.
+ */
+class MessageLog {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageLog.class);
+    private static final int WRITE_BATCH_SIZE = 1024;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private static final long RETENTION_CHECK_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Record> queue;
+    private final List<MessageLogSegment> segments;
+    private final LongAdder droppedRecords;
+    private MessageLogSegment activeSegment;
+    private volatile long lastWrittenSequence;
+    private volatile boolean isRunning;
+    private Thread writer;
+
+    MessageLog(ServerConfig config) {
+        directory = Paths.get(config.getMessageLogDirectory());
+        segmentBytes = config.getMessageLogSegmentBytes();
+        retentionBytes = config.getMessageLogRetentionBytes();
+        retentionMillis = TimeUnit.HOURS.toMillis(config.getMessageLogRetentionHours());
+        flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getMessageLogFlushIntervalMillis());
+        queue = new ArrayBlockingQueue<>(config.getMessageLogQueueCapacity());
+        segments = new CopyOnWriteArrayList<>();
+        droppedRecords = new LongAdder();
+    }
+
+    void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> logFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            logFiles = files.filter(MessageLogSegment::isLogFile).sorted().collect(Collectors.toList());
+        }
+        for (Path logFile : logFiles) {
+            segments.add(MessageLogSegment.open(logFile));
+        }
+        long lastSequence = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).getLastSequence();
+        if (segments.isEmpty()) {
+            activeSegment = MessageLogSegment.create(directory, lastSequence + 1, segmentBytes);
+            segments.add(activeSegment);
+        } else {
+            activeSegment = segments.get(segments.size() - 1);
+        }
+        lastWrittenSequence = lastSequence;
+        log.info("Message log opened in {} with {} segments, last sequence {}", directory, segments.size(), lastSequence);
+
+        isRunning = true;
+        writer = new Thread(this::writeRecords, "message-log-writer");
+        writer.start();
+    }
+
+    void close() {
+        isRunning = false;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands the packet to the writer without waiting for the disk. Packets must be appended in sequence order.
+     *
+     * @return false if the writer is too far behind and the packet was not logged
+     */
+    boolean append(EncodedPacket packet) {
+        if (!queue.offer(new Record(packet.getSequence(), System.currentTimeMillis(), packet))) {
+            droppedRecords.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes up to maxRecords logged packets starting at fromSequence.
+     *
+     * @return the number of packets visited
+     */
+    int read(long fromSequence, int maxRecords, PacketVisitor visitor) {
+        PacketDecoder decoder = new PacketDecoder();
+        decoder.setWireFormat(WireFormat.BINARY);
+        int[] visited = new int[1];
+        for (MessageLogSegment segment : segments) {
+            if (segment.getLastSequence() < fromSequence) {
+                continue;
+            }
+            boolean isComplete = segment.read(fromSequence, (sequence, timestamp, payload) -> {
+                if (visited[0] >= maxRecords) {
+                    return false;
+                }
+                byte[] frame = new byte[payload.remaining()];
+                payload.get(frame);
+                try {
+                    visitor.visit(sequence, timestamp, decoder.decode(ByteBuffer.wrap(frame)));
+                } catch (MalformedPacketException e) {
+                    log.error("Skipping unreadable message log record {}", sequence, e);
+                }
+                visited[0]++;
+                return true;
+            });
+            if (!isComplete) {
+                break;
+            }
+        }
+        return visited[0];
+    }
+
+    long getFirstSequence() {
+        return segments.get(0).getBaseSequence();
+    }
+
+    long getLastSequence() {
+        return lastWrittenSequence;
+    }
+
+    long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void writeRecords() {
+        List<Record> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        boolean isDirty = false;
+        long lastFlushNanos = System.nanoTime();
+        long lastRetentionCheckNanos = lastFlushNanos;
+        while (isRunning || !queue.isEmpty()) {
+            try {
+                Record first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+                    for (Record record : batch) {
+                        write(record);
+                    }
+                    lastWrittenSequence = batch.get(batch.size() - 1).sequence;
+                    batch.clear();
+                    isDirty = true;
+                }
+                long now = System.nanoTime();
+                if (isDirty && now - lastFlushNanos >= flushIntervalNanos) {
+                    activeSegment.force();
+                    isDirty = false;
+                    lastFlushNanos = now;
+                }
+                if (now - lastRetentionCheckNanos >= RETENTION_CHECK_INTERVAL_NANOS) {
+                    applyRetention();
+                    lastRetentionCheckNanos = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to write message log batch.", e);
+                batch.clear();
+            }
+        }
+        activeSegment.force();
+    }
+
+    private void write(Record record) throws IOException {
+        byte[] payload = record.packet.bytes(WireFormat.BINARY);
+        if (activeSegment.append(record.sequence, record.timestamp, payload)) {
+            return;
+        }
+        if (activeSegment.isEmpty()) {
+            log.error("Packet {} of {} bytes does not fit into a message log segment", record.sequence, payload.length);
+            return;
+        }
+        activeSegment.force();
+        activeSegment = MessageLogSegment.create(directory, record.sequence, segmentBytes);
+        segments.add(activeSegment);
+        applyRetention();
+        write(record);
+    }
+
+    private void applyRetention() {
+        long totalBytes = 0;
+        for (MessageLogSegment segment : segments) {
+            totalBytes += segment.getSize();
+        }
+        long oldestAllowed = System.currentTimeMillis() - retentionMillis;
+        while (segments.size() > 1) {
+            MessageLogSegment oldest = segments.get(0);
+            if (totalBytes <= retentionBytes && oldest.getLastTimestamp() >= oldestAllowed) {
+                break;
+            }
+            segments.remove(0);
+            totalBytes -= oldest.getSize();
+            try {
+                oldest.delete();
+                log.info("Deleted message log segment starting at {}", oldest.getBaseSequence());
+            } catch (IOException e) {
+                log.error("Failed to delete message log segment starting at {}", oldest.getBaseSequence(), e);
+            }
+        }
+    }
+
+    interface PacketVisitor {
+
+        void visit(long sequence, long timestamp, Packet packet);
+    }
+
+    private static final class Record {
+
+        private final long sequence;
+        private final long timestamp;
+        private final EncodedPacket packet;
+
+        private Record(long sequence, long timestamp, EncodedPacket packet) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.packet = packet;
+        }
+    }
+}
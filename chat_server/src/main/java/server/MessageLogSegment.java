@@ -0,0 +1,263 @@
+package server;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the message log: records laid out back to back in a memory-mapped file, plus a sparse index
+ * mapping a sequence to the position of its record every {@link #INDEX_INTERVAL_BYTES} bytes.
+ * Appends come from the single log writer thread; reads may come from any thread and only see records
+ * that were completely written.
+ */
+class MessageLogSegment {
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".index";
+    // payload length, crc32 of the rest of the record, sequence, append time
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4;
+    private static final int INDEX_INTERVAL_BYTES = 4096;
+    private final long baseSequence;
+    private final Path logFile;
+    private final Path indexFile;
+    private final MappedByteBuffer log;
+    private final MappedByteBuffer index;
+    private final CRC32 crc;
+    private int lastIndexedPosition;
+    private volatile int indexEntries;
+    private volatile int size;
+    private volatile long lastSequence;
+    private volatile long lastTimestamp;
+
+    private MessageLogSegment(Path directory, long baseSequence, int capacity) throws IOException {
+        this.baseSequence = baseSequence;
+        logFile = directory.resolve(fileName(baseSequence, LOG_SUFFIX));
+        indexFile = directory.resolve(fileName(baseSequence, INDEX_SUFFIX));
+        log = map(logFile, capacity);
+        index = map(indexFile, (capacity / INDEX_INTERVAL_BYTES + 1) * INDEX_ENTRY_SIZE);
+        crc = new CRC32();
+        lastSequence = baseSequence - 1;
+        lastIndexedPosition = -INDEX_INTERVAL_BYTES;
+    }
+
+    static MessageLogSegment create(Path directory, long baseSequence, int capacity) throws IOException {
+        return new MessageLogSegment(directory, baseSequence, capacity);
+    }
+
+    /**
+     * Maps an existing segment and finds where its last complete record ends, zeroing a torn tail if any.
+     */
+    static MessageLogSegment open(Path logFile) throws IOException {
+        String fileName = logFile.getFileName().toString();
+        long baseSequence = Long.parseLong(fileName.substring(0, fileName.length() - LOG_SUFFIX.length()));
+        MessageLogSegment segment = new MessageLogSegment(logFile.getParent(), baseSequence, (int) Files.size(logFile));
+        segment.recover();
+        return segment;
+    }
+
+    static boolean isLogFile(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(LOG_SUFFIX) && fileName.length() > LOG_SUFFIX.length()
+                && fileName.substring(0, fileName.length() - LOG_SUFFIX.length()).chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * @return false if the record does not fit into the rest of the segment
+     */
+    boolean append(long sequence, long timestamp, byte[] payload) {
+        int position = size;
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (recordSize > log.capacity() - position) {
+            return false;
+        }
+        if (position - lastIndexedPosition >= INDEX_INTERVAL_BYTES) {
+            addIndexEntry(sequence, position);
+        }
+        ByteBuffer record = log.duplicate();
+        record.position(position);
+        record.putInt(payload.length);
+        record.putInt(0);
+        record.putLong(sequence);
+        record.putLong(timestamp);
+        record.put(payload);
+        log.putInt(position + 4, checksum(position, payload.length));
+        lastSequence = sequence;
+        lastTimestamp = timestamp;
+        size = position + recordSize;
+        return true;
+    }
+
+    /**
+     * Visits records with a sequence of at least fromSequence until the visitor returns false.
+     *
+     * @return false if the visitor asked to stop
+     */
+    boolean read(long fromSequence, RecordVisitor visitor) {
+        int end = size;
+        ByteBuffer records = log.duplicate();
+        int position = findPosition(fromSequence);
+        while (position < end) {
+            int length = records.getInt(position);
+            long sequence = records.getLong(position + 8);
+            if (sequence >= fromSequence) {
+                long timestamp = records.getLong(position + 16);
+                records.limit(position + RECORD_HEADER_SIZE + length);
+                records.position(position + RECORD_HEADER_SIZE);
+                if (!visitor.visit(sequence, timestamp, records)) {
+                    return false;
+                }
+                records.clear();
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return true;
+    }
+
+    void force() {
+        log.force();
+        index.force();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(indexFile);
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int findPosition(long sequence) {
+        int low = 0;
+        int high = indexEntries - 1;
+        int position = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long entrySequence = baseSequence + index.getInt(middle * INDEX_ENTRY_SIZE);
+            if (entrySequence <= sequence) {
+                position = index.getInt(middle * INDEX_ENTRY_SIZE + 4);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return position;
+    }
+
+    private void addIndexEntry(long sequence, int position) {
+        int entry = indexEntries;
+        if ((entry + 1) * INDEX_ENTRY_SIZE > index.capacity()) {
+            return;
+        }
+        index.putInt(entry * INDEX_ENTRY_SIZE, (int) (sequence - baseSequence));
+        index.putInt(entry * INDEX_ENTRY_SIZE + 4, position);
+        lastIndexedPosition = position;
+        indexEntries = entry + 1;
+    }
+
+    private void recover() {
+        int entries = 0;
+        int position = 0;
+        while ((entries + 1) * INDEX_ENTRY_SIZE <= index.capacity()) {
+            int entryPosition = index.getInt(entries * INDEX_ENTRY_SIZE + 4);
+            if (entries > 0 && entryPosition <= position) {
+                break;
+            }
+            position = entryPosition;
+            entries++;
+        }
+        // Index entries are written ahead of their records, so only trust entries pointing at a valid record
+        int trusted = Math.max(0, entries - 1);
+        while (trusted > 0 && !isValidRecord(index.getInt((trusted - 1) * INDEX_ENTRY_SIZE + 4))) {
+            trusted--;
+        }
+        indexEntries = trusted;
+        position = trusted == 0 ? 0 : index.getInt((trusted - 1) * INDEX_ENTRY_SIZE + 4);
+        lastIndexedPosition = trusted == 0 ? -INDEX_INTERVAL_BYTES : position;
+        while (isValidRecord(position)) {
+            if (position - lastIndexedPosition >= INDEX_INTERVAL_BYTES) {
+                addIndexEntry(log.getLong(position + 8), position);
+            }
+            lastSequence = log.getLong(position + 8);
+            lastTimestamp = log.getLong(position + 16);
+            position += RECORD_HEADER_SIZE + log.getInt(position);
+        }
+        size = position;
+        zeroFrom(log, position);
+        zeroFrom(index, indexEntries * INDEX_ENTRY_SIZE);
+    }
+
+    private boolean isValidRecord(int position) {
+        if (position < 0 || position + RECORD_HEADER_SIZE > log.capacity()) {
+            return false;
+        }
+        int length = log.getInt(position);
+        return length > 0 && length <= log.capacity() - position - RECORD_HEADER_SIZE
+                && log.getInt(position + 4) == checksum(position, length);
+    }
+
+    private static void zeroFrom(MappedByteBuffer buffer, int position) {
+        int dirtyEnd = position;
+        for (int i = position; i < Math.min(buffer.capacity(), position + RECORD_HEADER_SIZE); i++) {
+            if (buffer.get(i) != 0) {
+                dirtyEnd = buffer.capacity();
+            }
+        }
+        for (int i = position; i < dirtyEnd; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private int checksum(int position, int payloadLength) {
+        ByteBuffer checked = log.duplicate();
+        checked.position(position + 8);
+        checked.limit(position + RECORD_HEADER_SIZE + payloadLength);
+        crc.reset();
+        crc.update(checked);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path file, int capacity) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            if (randomAccessFile.length() < capacity) {
+                randomAccessFile.setLength(capacity);
+            }
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    private static String fileName(long baseSequence, String suffix) {
+        return String.format("%020d%s", baseSequence, suffix);
+    }
+
+    interface RecordVisitor {
+
+        /**
+         * @param payload the record's binary packet frame, valid only for the duration of the call
+         * @return false to stop reading
+         */
+        boolean visit(long sequence, long timestamp, ByteBuffer payload);
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+class MeteredInputStream extends FilterInputStream {
+
+    private final ConnectionMetrics metrics;
+
+    MeteredInputStream(InputStream in, ConnectionMetrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) {
+            metrics.bytesReceived(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            metrics.bytesReceived(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        metrics.bytesReceived(skipped);
+        return skipped;
+    }
+}
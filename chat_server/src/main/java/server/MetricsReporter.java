@@ -0,0 +1,155 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class MetricsReporter {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsReporter.class);
+    private static final int TOP_CONNECTIONS = 20;
+    private final Server server;
+    private final ServerMetrics metrics;
+    private final Path file;
+    private final long intervalSeconds;
+    private ScheduledExecutorService executor;
+    private long startNanos;
+    private long lastNanos;
+    private long lastPacketsIn;
+    private long lastPacketsOut;
+    private long lastBytesIn;
+    private long lastBytesOut;
+    private long lastChatMessages;
+
+    MetricsReporter(Server server, ServerMetrics metrics, String file, long intervalSeconds) {
+        this.server = server;
+        this.metrics = metrics;
+        this.file = Paths.get(file);
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    void start() {
+        startNanos = System.nanoTime();
+        lastNanos = startNanos;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void dump() {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                write(new PrintWriter(writer));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write metrics to {}", file, e);
+        }
+    }
+
+    private void write(PrintWriter out) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastNanos) / 1e9);
+        long packetsIn = metrics.getPacketsIn();
+        long packetsOut = metrics.getPacketsOut();
+        long bytesIn = metrics.getBytesIn();
+        long bytesOut = metrics.getBytesOut();
+        long chatMessages = metrics.getChatMessages();
+
+        out.printf("# chat server metrics at %s%n", new Date());
+        out.printf("uptime_seconds %d%n", TimeUnit.NANOSECONDS.toSeconds(now - startNanos));
+        out.printf("connections_accepted %d%n", metrics.getConnectionsAccepted());
+        out.printf("connections_open %d%n", metrics.getConnectionsOpen());
+        out.printf("users_online %d%n", metrics.getUsersOnline());
+        out.printf("rooms %d%n", metrics.getRooms());
+        out.printf("cluster_nodes %d%n", metrics.getClusterNodes());
+        out.printf("packets_in %d (%.1f/s)%n", packetsIn, (packetsIn - lastPacketsIn) / seconds);
+        out.printf("packets_out %d (%.1f/s)%n", packetsOut, (packetsOut - lastPacketsOut) / seconds);
+        out.printf("bytes_in %d (%.1f/s)%n", bytesIn, (bytesIn - lastBytesIn) / seconds);
+        out.printf("bytes_out %d (%.1f/s)%n", bytesOut, (bytesOut - lastBytesOut) / seconds);
+        out.printf("chat_messages %d (%.1f/s)%n", chatMessages, (chatMessages - lastChatMessages) / seconds);
+        out.printf("broadcast_deliveries %d%n", metrics.getBroadcastDeliveries());
+        out.printf("private_messages %d%n", metrics.getPrivateMessages());
+        out.printf("private_messages_offline %d%n", metrics.getPrivateMessagesOffline());
+        out.printf("logins_accepted %d%n", metrics.getLoginsAccepted());
+        out.printf("logins_rejected %d%n", metrics.getLoginsRejected());
+        out.printf("logouts %d%n", metrics.getLogouts());
+        out.printf("replays %d%n", metrics.getReplays());
+        out.printf("replayed_packets %d%n", metrics.getReplayedPackets());
+        out.printf("outbound_queue_depth %d%n", metrics.getOutboundQueueDepth());
+        out.printf("outbound_dropped_packets %d%n", metrics.getDroppedPackets());
+        out.printf("slow_consumer_disconnects %d%n", metrics.getSlowConsumerDisconnects());
+        out.printf("message_log_last_sequence %d%n", metrics.getMessageLogLastSequence());
+        out.printf("message_log_queue_depth %d%n", metrics.getMessageLogQueueDepth());
+        out.printf("message_log_dropped_records %d%n", metrics.getMessageLogDroppedRecords());
+        out.printf("searches %d%n", metrics.getSearches());
+        out.printf("search_index_last_sequence %d%n", metrics.getSearchIndexLastSequence());
+        out.printf("search_index_tokens %d%n", metrics.getSearchIndexTokens());
+        out.printf("rate_limited_packets %d%n", metrics.getRateLimitedPackets());
+        out.printf("rate_limited_delays %d%n", metrics.getRateLimitedDelays());
+        writeLatency(out, "broadcast_latency_micros", metrics.getBroadcastLatency());
+        writeLatency(out, "login_latency_micros", metrics.getLoginLatency());
+        writeLatency(out, "search_latency_micros", metrics.getSearchLatency());
+        writeTopConnections(out);
+        out.flush();
+
+        lastNanos = now;
+        lastPacketsIn = packetsIn;
+        lastPacketsOut = packetsOut;
+        lastBytesIn = bytesIn;
+        lastBytesOut = bytesOut;
+        lastChatMessages = chatMessages;
+    }
+
+    private void writeLatency(PrintWriter out, String name, LatencyHistogram histogram) {
+        out.printf("%s count=%d mean=%d p50=%d p99=%d p99.9=%d max=%d%n", name, histogram.getCount(),
+                histogram.getMeanMicros(), histogram.getPercentileMicros(50), histogram.getPercentileMicros(99),
+                histogram.getPercentileMicros(99.9), histogram.getMaxMicros());
+    }
+
+    private void writeTopConnections(PrintWriter out) {
+        List<Map.Entry<Connection, Integer>> connections = new ArrayList<>();
+        for (Connection connection : server.getConnectionsMap().values()) {
+            connections.add(new AbstractMap.SimpleImmutableEntry<>(connection, connection.getOutboundQueue().getDepth()));
+        }
+        connections.sort(Map.Entry.<Connection, Integer>comparingByValue().reversed());
+        out.printf("# top %d connections by outbound queue depth%n", TOP_CONNECTIONS);
+        for (Map.Entry<Connection, Integer> entry : connections.subList(0, Math.min(TOP_CONNECTIONS, connections.size()))) {
+            ConnectionMetrics connectionMetrics = entry.getKey().getMetrics();
+            out.printf("connection nickname=%s queue_depth=%d packets_in=%d packets_out=%d bytes_in=%d bytes_out=%d%n",
+                    entry.getKey().getNickname(), entry.getValue(),
+                    connectionMetrics.getPacketsIn(), connectionMetrics.getPacketsOut(),
+                    connectionMetrics.getBytesIn(), connectionMetrics.getBytesOut());
+        }
+    }
+}
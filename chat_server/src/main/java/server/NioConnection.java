@@ -0,0 +1,300 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.Packet;
+import packet.PacketDecoder;
+import packet.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class NioConnection extends AbstractConnection {
+
+    private static final Logger log = LoggerFactory.getLogger(NioConnection.class);
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int WRITE_BATCH_MAX_PACKETS = 512;
+    private final Server server;
+    private final NioEventLoop eventLoop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean isFlushScheduled;
+    private final AtomicBoolean isClosed;
+    private final Runnable flushTask;
+    private final ByteBuffer[] writeBatch;
+    private final int coalesceMaxBytes;
+    private final long coalesceDelayNanos;
+    private final PacketDecoder decoder;
+    private final String remoteAddress;
+    private int writeBatchStart;
+    private int writeBatchEnd;
+    private ReplayCursor activeReplay;
+    // Set once the last packet is taken into the write batch, nothing is written after it
+    private volatile boolean isLastPacketTaken;
+    private ByteBuffer readBuffer;
+    // Held back by the rate limiter, reading is paused until it is handled
+    private Packet delayedPacket;
+    // A login is answered from another thread, reading is paused until the handshake completes
+    private boolean isAwaitingHandshake;
+    private volatile WireFormat wireFormat;
+
+    NioConnection(Server server, NioEventLoop eventLoop, SocketChannel channel, SelectionKey key) {
+        super(server.getMetrics());
+        this.server = server;
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.key = key;
+        outboundQueue = server.newOutboundQueue();
+        isFlushScheduled = new AtomicBoolean();
+        isClosed = new AtomicBoolean();
+        flushTask = () -> {
+            isFlushScheduled.set(false);
+            flush();
+        };
+        writeBatch = new ByteBuffer[WRITE_BATCH_MAX_PACKETS];
+        coalesceMaxBytes = server.getConfig().getWriteCoalesceMaxBytes();
+        coalesceDelayNanos = TimeUnit.MICROSECONDS.toNanos(server.getConfig().getWriteCoalesceDelayMicros());
+        decoder = new PacketDecoder();
+        decoder.setMaxFrameSize(server.getConfig().getMaxFrameBytes());
+        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        remoteAddress = channel.socket().getInetAddress().getHostAddress();
+        wireFormat = WireFormat.JSON;
+    }
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            log.error("Failed to read client {} data", channel, e);
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        getMetrics().bytesReceived(read);
+        if (delayedPacket == null && !isAwaitingHandshake) {
+            decodePackets();
+        }
+    }
+
+    private void resumeReading() {
+        if (isClosed.get()) {
+            return;
+        }
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        decodePackets();
+    }
+
+    private void decodePackets() {
+        try {
+            readPackets();
+        } catch (IOException | RuntimeException e) {
+            // Anything a packet handler throws ends this connection only, not the event loop serving others
+            log.error("Failed to decode client {} data", channel, e);
+            close();
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void readPackets() throws IOException {
+        readBuffer.flip();
+        Packet packet = delayedPacket;
+        delayedPacket = null;
+        while (!isClosed.get()) {
+            if (packet == null) {
+                packet = decoder.decode(readBuffer);
+                if (packet == null) {
+                    break;
+                }
+                getMetrics().packetReceived();
+            }
+            long delayNanos = server.getRateLimiter().acquire(this, packet);
+            if (delayNanos > 0) {
+                delayedPacket = packet;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                eventLoop.schedule(this::resumeReading, delayNanos);
+                break;
+            }
+            if (delayNanos == 0) {
+                server.getPacketHandler().handlePacket(this, packet);
+            }
+            packet = null;
+            if (isHandshaking()) {
+                // What follows the LOGIN is decoded once the response has switched to the negotiated wire format
+                isAwaitingHandshake = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                break;
+            }
+        }
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            ByteBuffer expanded = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            expanded.put(readBuffer);
+            readBuffer = expanded;
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (eventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            eventLoop.execute(task);
+        }
+    }
+
+    @Override
+    public void completeHandshake(EncodedPacket response, WireFormat wireFormat, ReplayCursor replay) {
+        super.completeHandshake(response, wireFormat, replay);
+        execute(() -> {
+            if (isAwaitingHandshake) {
+                isAwaitingHandshake = false;
+                resumeReading();
+            }
+        });
+    }
+
+    @Override
+    public void setWireFormat(WireFormat wireFormat) {
+        decoder.setWireFormat(wireFormat);
+        this.wireFormat = wireFormat;
+    }
+
+    @Override
+    void enqueue(EncodedPacket packet, boolean mayBlock) {
+        if (isClosed.get() || isLastPacketTaken) {
+            return;
+        }
+        packet.bytes(wireFormat);
+        if (!outboundQueue.offer(packet, mayBlock)) {
+            log.warn("Disconnecting slow client {}", channel);
+            close();
+            return;
+        }
+        if (isFlushScheduled.compareAndSet(false, true)) {
+            eventLoop.schedule(flushTask, coalesceDelayNanos);
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    private void flush() {
+        int writtenPackets = 0;
+        long writtenBytes = 0;
+        try {
+            while (fillWriteBatch()) {
+                writtenBytes += channel.write(writeBatch, writeBatchStart, writeBatchEnd - writeBatchStart);
+                while (writeBatchStart < writeBatchEnd && !writeBatch[writeBatchStart].hasRemaining()) {
+                    writeBatch[writeBatchStart++] = null;
+                    writtenPackets++;
+                }
+                if (writeBatchStart < writeBatchEnd) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeBatchStart = 0;
+                writeBatchEnd = 0;
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            if (isLastPacketTaken) {
+                // The client closes its side once it has read everything, which ends reading
+                channel.shutdownOutput();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write to client {}", channel, e);
+            close();
+        } finally {
+            getMetrics().packetsSent(writtenPackets, writtenBytes);
+        }
+    }
+
+    private boolean fillWriteBatch() {
+        if (writeBatchStart > 0) {
+            System.arraycopy(writeBatch, writeBatchStart, writeBatch, 0, writeBatchEnd - writeBatchStart);
+            Arrays.fill(writeBatch, writeBatchEnd - writeBatchStart, writeBatchEnd, null);
+            writeBatchEnd -= writeBatchStart;
+            writeBatchStart = 0;
+        }
+        long batchSize = 0;
+        for (int i = 0; i < writeBatchEnd; i++) {
+            batchSize += writeBatch[i].remaining();
+        }
+        while (!isLastPacketTaken && writeBatchEnd < writeBatch.length && batchSize < coalesceMaxBytes) {
+            EncodedPacket packet = nextPacket();
+            if (packet == null) {
+                break;
+            }
+            writeBatch[writeBatchEnd++] = packet.asByteBuffer(wireFormat);
+            batchSize += packet.size(wireFormat);
+            if (activeReplay == null) {
+                activeReplay = replayAfter(packet);
+            }
+            isLastPacketTaken = packet.isLast();
+        }
+        return writeBatchEnd > 0;
+    }
+
+    /**
+     * While a replay is active its packets go out before anything queued, one chunk at a time as the socket accepts them.
+     */
+    private EncodedPacket nextPacket() {
+        if (activeReplay != null) {
+            EncodedPacket packet = activeReplay.next();
+            if (packet != null) {
+                return packet;
+            }
+            finishReplay(activeReplay);
+            activeReplay = null;
+        }
+        EncodedPacket packet;
+        do {
+            packet = outboundQueue.poll();
+        } while (packet != null && isReplayed(packet));
+        return packet;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !isClosed.get();
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close client channel.", e);
+        }
+        outboundQueue.clear();
+        server.connectionClosed(this);
+        server.getMetrics().connectionClosed();
+        server.getPacketHandler().handleDisconnect(this);
+    }
+}
@@ -0,0 +1,205 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.net.StandardSocketOptions;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+class NioEventLoop implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(NioEventLoop.class);
+    private final Server server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final PriorityQueue<ScheduledTask> scheduledTasks;
+    private volatile Thread thread;
+    private volatile boolean isRunning;
+
+    NioEventLoop(Server server) throws IOException {
+        this.server = server;
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        scheduledTasks = new PriorityQueue<>();
+    }
+
+    void start(String name) {
+        isRunning = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    void stop() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(server, this, channel, key);
+                key.attach(connection);
+                server.connectionOpened(connection);
+            } catch (IOException e) {
+                log.error("Failed to register client channel {}", channel, e);
+                closeChannel(channel);
+            }
+        });
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    void schedule(Runnable task, long delayNanos) {
+        if (delayNanos <= 0) {
+            execute(task);
+            return;
+        }
+        ScheduledTask scheduledTask = new ScheduledTask(task, System.nanoTime() + delayNanos);
+        if (inEventLoop()) {
+            scheduledTasks.add(scheduledTask);
+        } else {
+            execute(() -> scheduledTasks.add(scheduledTask));
+        }
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isRunning) {
+                select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+                runTasks();
+                runScheduledTasks();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            log.error("Event loop {} failed.", thread.getName(), e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void select() throws IOException {
+        if (!tasks.isEmpty()) {
+            selector.selectNow();
+            return;
+        }
+        ScheduledTask nextTask = scheduledTasks.peek();
+        if (nextTask == null) {
+            selector.select();
+            return;
+        }
+        long delayNanos = nextTask.deadline - System.nanoTime();
+        if (delayNanos <= 0) {
+            selector.selectNow();
+        } else {
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+        }
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask scheduledTask;
+        while ((scheduledTask = scheduledTasks.peek()) != null && scheduledTask.deadline - now <= 0) {
+            scheduledTasks.poll();
+            runTask(scheduledTask.task);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runTask(task);
+        }
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.error("Task failed in event loop {}", thread.getName(), e);
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        if (!key.isValid()) {
+            connection.close();
+            return;
+        }
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to handle client {}", connection.getRemoteAddress(), e);
+            connection.close();
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.error("Failed to close selector.", e);
+        }
+    }
+
+    private void closeChannel(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close client channel.", e);
+        }
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+
+        private final Runnable task;
+        private final long deadline;
+
+        private ScheduledTask(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+class OutboundQueue {
+
+    private static final long CAPACITY_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private final BlockingQueue<EncodedPacket> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final OutboundQueueStats stats;
+    private final AtomicLong droppedCount;
+
+    OutboundQueue(ServerConfig config, OutboundQueueStats stats) {
+        queue = new ArrayBlockingQueue<>(config.getOutboundQueueCapacity());
+        overflowPolicy = config.getOverflowPolicy();
+        blockTimeoutMillis = config.getOverflowBlockTimeoutMillis();
+        this.stats = stats;
+        droppedCount = new AtomicLong();
+    }
+
+    boolean offer(EncodedPacket packet) {
+        return offer(packet, true);
+    }
+
+    /**
+     * @param mayBlock false while holding a lock other senders need: with the BLOCK policy a full queue then drops
+     *                 the packet at once, such a sender waits for room with {@link #awaitCapacity} before locking
+     */
+    boolean offer(EncodedPacket packet, boolean mayBlock) {
+        if (queue.offer(packet)) {
+            return true;
+        }
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(packet)) {
+                    if (queue.poll() != null) {
+                        dropped();
+                    }
+                }
+                return true;
+            case BLOCK:
+                try {
+                    if (!mayBlock || !queue.offer(packet, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        dropped();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped();
+                }
+                return true;
+            case DISCONNECT:
+            default:
+                stats.slowConsumerDisconnected();
+                return false;
+        }
+    }
+
+    /**
+     * With the BLOCK policy, waits up to the block timeout until the queue has room. Slow consumers are rare, so
+     * rather than being signalled the wait polls.
+     */
+    void awaitCapacity() throws InterruptedException {
+        if (overflowPolicy != OverflowPolicy.BLOCK || queue.remainingCapacity() > 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        while (queue.remainingCapacity() == 0 && deadline - System.nanoTime() > 0) {
+            LockSupport.parkNanos(CAPACITY_POLL_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    EncodedPacket poll() {
+        return queue.poll();
+    }
+
+    EncodedPacket poll(long timeoutNanos) throws InterruptedException {
+        if (timeoutNanos <= 0) {
+            return queue.poll();
+        }
+        return queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    EncodedPacket take() throws InterruptedException {
+        return queue.take();
+    }
+
+    void clear() {
+        queue.clear();
+    }
+
+    int getDepth() {
+        return queue.size();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void dropped() {
+        droppedCount.incrementAndGet();
+        stats.packetDropped();
+    }
+}
@@ -0,0 +1,25 @@
+package server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class OutboundQueueStats {
+
+    private final LongAdder droppedPackets = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    void packetDropped() {
+        droppedPackets.increment();
+    }
+
+    void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+}
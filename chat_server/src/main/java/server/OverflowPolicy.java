@@ -0,0 +1,7 @@
+package server;
+
+enum OverflowPolicy {
+    DROP_OLDEST,
+    DISCONNECT,
+    BLOCK
+}
@@ -0,0 +1,439 @@
+package server;
+
+import packet.Packet;
+import packet.PacketType;
+import packet.ProtocolFeature;
+import packet.WireFormat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+class PacketHandler {
+
+    private static final List<String> SUPPORTED_FEATURES =
+            Arrays.asList(ProtocolFeature.BINARY, ProtocolFeature.PRESENCE, ProtocolFeature.DEFLATE,
+                    ProtocolFeature.TIMESTAMP);
+    private final Server server;
+    // Broadcasts are sequenced and fanned out one at a time, so every connection sees CHAT packets in sequence order.
+    // Nothing waits while holding it, slow consumers are waited for before it is taken.
+    private final Object broadcastLock;
+
+    PacketHandler(Server server) {
+        this.server = server;
+        broadcastLock = new Object();
+    }
+
+    void handlePacket(Connection connection, Packet packet) {
+        // Timestamps are assigned by the server, so packets are ordered by one clock whatever the clients' clocks
+        packet.setTimestamp(System.currentTimeMillis());
+        // Sequences are assigned by the server, a client only sends the last one it has seen when logging in
+        long clientSequence = packet.getSequence();
+        packet.setSequence(0);
+        switch (packet.getType()) {
+            case LOGIN:
+                handleLogin(connection, packet, clientSequence);
+                break;
+            case LOGOUT:
+                handleLogout(connection, packet);
+                break;
+            case ROSTER:
+                connection.sendPacket(server.getPresence().newRoster());
+                break;
+            case CHAT:
+                handleChat(connection, packet);
+                break;
+            case JOIN:
+                handleJoin(connection, packet);
+                break;
+            case PART:
+                handlePart(connection, packet);
+                break;
+            case PRIVATE:
+                handlePrivate(connection, packet);
+                break;
+            case SEARCH:
+                handleSearch(connection, packet);
+                break;
+            default:
+        }
+    }
+
+    void handleDisconnect(Connection connection) {
+        if (connection.getNickname() == null) {
+            return;
+        }
+        Packet packet = new Packet();
+        packet.setTimestamp(System.currentTimeMillis());
+        packet.setNickname(connection.getNickname());
+        packet.setType(PacketType.LOGOUT);
+        handleLogout(connection, packet);
+    }
+
+    private void handleLogin(Connection connection, Packet packet, long resumeAfterSequence) {
+        if (connection.getNickname() != null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        String nickname = packet.getNickname();
+        List<String> features = acceptedFeatures(packet);
+        connection.setFeatures(features != null ? features : new ArrayList<>());
+        connection.beginHandshake();
+        if (nickname == null || server.getConnectionsMap().putIfAbsent(nickname, connection) != null) {
+            rejectLogin(connection);
+            return;
+        }
+        Cluster cluster = server.getCluster();
+        if (cluster == null) {
+            acceptLogin(connection, packet, features, resumeAfterSequence, startNanos);
+            return;
+        }
+        // The owner of the nickname may be another node, the handshake completes when it answers
+        cluster.reserve(nickname, isReserved -> connection.execute(() -> {
+            if (isReserved) {
+                acceptLogin(connection, packet, features, resumeAfterSequence, startNanos);
+            } else {
+                server.getConnectionsMap().remove(nickname, connection);
+                cluster.release(nickname);
+                rejectLogin(connection);
+            }
+        }));
+    }
+
+    private void rejectLogin(Connection connection) {
+        Packet packetOut = new Packet();
+        packetOut.setType(PacketType.LOGIN_REJECTED);
+        connection.completeHandshake(EncodedPacket.handshake(packetOut), WireFormat.JSON, null);
+        server.getMetrics().loginRejected();
+    }
+
+    private void acceptLogin(Connection connection, Packet packet, List<String> features, long resumeAfterSequence,
+                             long startNanos) {
+        connection.setNickname(packet.getNickname());
+        if (!connection.isOpen()) {
+            // Closed while the nickname was being reserved, before there was a nickname to log out
+            handleDisconnect(connection);
+            return;
+        }
+        List<String> rooms = joinRooms(connection, packet.getRooms());
+        long rosterVersion = server.getPresence().nextRosterVersion();
+        // The handshake response is always JSON, with compression the roster follows it as a compressed ROSTER
+        boolean isRosterDeferred = features != null && features.contains(ProtocolFeature.DEFLATE);
+        Packet response = newLoginResponse(packet,
+                isRosterDeferred ? new ArrayList<>() : server.getPresence().getUsers(), features);
+        response.setRosterVersion(rosterVersion);
+        response.setRooms(rooms);
+        long lastSequence = server.getReplayBuffer().getLastSequence();
+        response.setSequence(lastSequence);
+        if (isRosterDeferred) {
+            connection.sendPacket(server.getPresence().newRoster());
+        }
+        EncodedPacket encodedResponse = EncodedPacket.handshake(response);
+        connection.completeHandshake(encodedResponse, WireFormat.negotiated(response),
+                newReplay(connection, encodedResponse, resumeAfterSequence, lastSequence));
+        server.getPresence().broadcastJoined(packet, rosterVersion, connection);
+        Cluster cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.userJoined(packet);
+        }
+        server.getMetrics().loginAccepted(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Broadcasts with a later sequence are fanned out after the connection was registered, so the replay only has to
+     * cover the packets up to lastSequence.
+     */
+    private ReplayCursor newReplay(Connection connection, EncodedPacket response, long afterSequence, long lastSequence) {
+        if (afterSequence <= 0 || afterSequence >= lastSequence) {
+            return null;
+        }
+        ServerConfig config = server.getConfig();
+        return new ReplayCursor(response, server.getReplayBuffer(), server.getMessageLog(), connection.getRooms(),
+                Math.max(afterSequence, lastSequence - config.getReplayMaxPackets()), lastSequence,
+                config.getReplayChunkSize());
+    }
+
+    /**
+     * Joins the default room and the rooms the client was in before reconnecting, before the login response
+     * is sequenced so no message of these rooms falls between the replay and live traffic.
+     */
+    private List<String> joinRooms(Connection connection, List<String> requestedRooms) {
+        Rooms rooms = server.getRooms();
+        rooms.join(Packet.DEFAULT_ROOM, connection);
+        if (requestedRooms != null) {
+            for (String room : requestedRooms) {
+                if (connection.getRooms().size() >= server.getConfig().getMaxRoomsPerConnection()) {
+                    break;
+                }
+                if (Rooms.isValidName(room)) {
+                    rooms.join(room, connection);
+                }
+            }
+        }
+        return new ArrayList<>(connection.getRooms());
+    }
+
+    private void handleJoin(Connection connection, Packet packet) {
+        String room = packet.getRoom();
+        if (connection.getNickname() == null || !Rooms.isValidName(room)
+                || connection.getRooms().size() >= server.getConfig().getMaxRoomsPerConnection()
+                || !server.getRooms().join(room, connection)) {
+            return;
+        }
+        packet.setNickname(connection.getNickname());
+        sendToRoom(room, packet);
+        relay(packet);
+    }
+
+    private void handlePart(Connection connection, Packet packet) {
+        String room = packet.getRoom();
+        if (connection.getNickname() == null || !Rooms.isValidName(room) || Packet.DEFAULT_ROOM.equals(room)
+                || !server.getRooms().part(room, connection)) {
+            return;
+        }
+        packet.setNickname(connection.getNickname());
+        connection.send(sendToRoom(room, packet));
+        relay(packet);
+    }
+
+    /**
+     * Handles a packet a client of another node has sent, for the local members of its room or its local recipient.
+     */
+    void handleRelayed(Packet packet) {
+        String room = Rooms.roomOf(packet.getRoom());
+        switch (packet.getType()) {
+            case CHAT:
+                sendPacketToRoom(room, packet);
+                break;
+            case JOIN:
+            case PART:
+                sendToRoom(room, packet);
+                break;
+            case PRIVATE:
+                Connection recipient = server.getConnectionsMap().get(packet.getRecipient());
+                if (recipient != null && !recipient.isLegacy()) {
+                    recipient.sendPacket(packet);
+                }
+                break;
+            default:
+        }
+    }
+
+    private void relay(Packet packet) {
+        Cluster cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.relay(packet);
+        }
+    }
+
+    /**
+     * Room notices are not sequenced: like presence they describe current state rather than history.
+     */
+    private EncodedPacket sendToRoom(String room, Packet packet) {
+        EncodedPacket encodedPacket = EncodedPacket.of(packet);
+        for (Connection member : server.getRooms().getSubscribers(room)) {
+            member.send(encodedPacket);
+        }
+        return encodedPacket;
+    }
+
+    private Packet newLoginResponse(Packet request, List<String> usersList, List<String> features) {
+        Packet response = new Packet();
+        response.setType(PacketType.LOGIN);
+        response.setTimestamp(request.getTimestamp());
+        response.setNickname(request.getNickname());
+        response.setUsers(usersList);
+        response.setFeatures(features);
+        return response;
+    }
+
+    private List<String> acceptedFeatures(Packet request) {
+        if (request.getFeatures() == null) {
+            return null;
+        }
+        List<String> features = new ArrayList<>();
+        for (String feature : SUPPORTED_FEATURES) {
+            if (request.hasFeature(feature)) {
+                features.add(feature);
+            }
+        }
+        if (!features.contains(ProtocolFeature.BINARY) || !server.getConfig().isDeflateEnabled()) {
+            features.remove(ProtocolFeature.DEFLATE);
+        }
+        return features;
+    }
+
+    private void handleLogout(Connection connection, Packet packet) {
+        if (connection.getNickname() == null || !server.getConnectionsMap().remove(connection.getNickname(), connection)) {
+            return;
+        }
+        server.getRooms().partAll(connection);
+        packet.setNickname(connection.getNickname());
+        if (!server.isDraining()) {
+            server.getPresence().broadcastLeft(packet, server.getPresence().nextRosterVersion());
+        }
+        Cluster cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.userLeft(packet);
+        }
+        server.getMetrics().loggedOut();
+    }
+
+    private void handleChat(Connection connection, Packet packet) {
+        String room = Rooms.roomOf(packet.getRoom());
+        if (connection.getNickname() == null || !connection.getRooms().contains(room)) {
+            return;
+        }
+        packet.setNickname(connection.getNickname());
+        packet.setRoom(Rooms.wireRoom(room));
+        sendPacketToRoom(room, packet);
+        relay(packet);
+    }
+
+    /**
+     * Private messages skip the fan-out: one lookup by nickname and straight to the recipient's outbound queue.
+     * They are neither sequenced nor logged, so a reconnecting client does not get them replayed.
+     */
+    private void handlePrivate(Connection connection, Packet packet) {
+        String recipient = packet.getRecipient();
+        if (connection.getNickname() == null || recipient == null) {
+            return;
+        }
+        packet.setNickname(connection.getNickname());
+        packet.setRoom(null);
+        boolean isDelivered = sendPrivate(packet);
+        Packet acknowledgement = new Packet();
+        acknowledgement.setType(isDelivered ? PacketType.PRIVATE_DELIVERED : PacketType.PRIVATE_OFFLINE);
+        acknowledgement.setTimestamp(packet.getTimestamp());
+        acknowledgement.setRecipient(recipient);
+        connection.sendPacket(acknowledgement);
+        server.getMetrics().privateMessage(isDelivered);
+    }
+
+    private boolean sendPrivate(Packet packet) {
+        Connection recipient = server.getConnectionsMap().get(packet.getRecipient());
+        // Still logging in, the nickname may yet be rejected
+        if (recipient != null && recipient.getNickname() != null) {
+            if (recipient.isLegacy()) {
+                return false;
+            }
+            recipient.sendPacket(packet);
+            return true;
+        }
+        Cluster cluster = server.getCluster();
+        return cluster != null && cluster.sendPrivate(packet);
+    }
+
+    /**
+     * Sends a page of the logged messages matching the query from the rooms the user is in, newest first, each as
+     * a SEARCH_RESULT, then the SEARCH response with the cursor to continue below, 0 if there are no more.
+     */
+    private void handleSearch(Connection connection, Packet packet) {
+        SearchIndex searchIndex = server.getSearchIndex();
+        MessageLog messageLog = server.getMessageLog();
+        if (connection.getNickname() == null || searchIndex == null || messageLog == null) {
+            return;
+        }
+        ExecutorService searchExecutor = server.getSearchExecutor();
+        if (searchExecutor == null) {
+            search(connection, packet, searchIndex, messageLog);
+            return;
+        }
+        try {
+            searchExecutor.execute(() -> search(connection, packet, searchIndex, messageLog));
+        } catch (RejectedExecutionException e) {
+            // The server is stopping
+        }
+    }
+
+    /**
+     * Reads the hits back from the message log on the calling thread, then sends them from the connection's own.
+     */
+    private void search(Connection connection, Packet packet, SearchIndex searchIndex, MessageLog messageLog) {
+        long startNanos = System.nanoTime();
+        String room = packet.getRoom() != null ? Rooms.roomOf(packet.getRoom()) : null;
+        Set<String> rooms = connection.getRooms();
+        List<Packet> hits = new ArrayList<>();
+        long nextSequence = searchIndex.search(packet.getMessage(), packet.getSearchCursor(),
+                server.getConfig().getSearchPageSize(), sequence -> {
+                    Packet hit = readLogged(messageLog, sequence);
+                    if (hit == null) {
+                        return false;
+                    }
+                    String hitRoom = Rooms.roomOf(hit.getRoom());
+                    if (!rooms.contains(hitRoom) || room != null && !room.equals(hitRoom)) {
+                        return false;
+                    }
+                    // Hits are not broadcast, their log sequence must not look like one to the replay filter
+                    hit.setSearchCursor(sequence);
+                    hit.setSequence(0);
+                    hits.add(hit);
+                    return true;
+                });
+        Packet response = new Packet();
+        response.setType(PacketType.SEARCH);
+        response.setTimestamp(packet.getTimestamp());
+        response.setMessage(packet.getMessage());
+        response.setRoom(packet.getRoom());
+        response.setSearchCursor(nextSequence);
+        server.getMetrics().searched(System.nanoTime() - startNanos);
+        connection.execute(() -> {
+            for (Packet hit : hits) {
+                hit.setType(PacketType.SEARCH_RESULT);
+                connection.sendPacket(hit);
+            }
+            connection.sendPacket(response);
+        });
+    }
+
+    private static Packet readLogged(MessageLog messageLog, long sequence) {
+        Packet[] logged = new Packet[1];
+        messageLog.read(sequence, 1, (loggedSequence, timestamp, packet) -> {
+            if (loggedSequence == sequence) {
+                logged[0] = packet;
+            }
+        });
+        return logged[0];
+    }
+
+    private void sendPacketToRoom(String room, Packet packet) {
+        long startNanos = System.nanoTime();
+        ReplayBuffer replayBuffer = server.getReplayBuffer();
+        MessageLog messageLog = server.getMessageLog();
+        int recipients = 0;
+        awaitCapacity(server.getRooms().getSubscribers(room));
+        synchronized (broadcastLock) {
+            packet.setSequence(replayBuffer.nextSequence());
+            EncodedPacket encodedPacket = EncodedPacket.of(packet);
+            replayBuffer.add(encodedPacket);
+            if (messageLog != null) {
+                messageLog.append(encodedPacket);
+            }
+            for (Connection connection : server.getRooms().getSubscribers(room)) {
+                connection.sendWithoutBlocking(encodedPacket);
+                recipients++;
+            }
+        }
+        server.getMetrics().broadcast(recipients, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * With the BLOCK overflow policy, waits for full queues of the subscribers to get room. A queue filled up again
+     * by the time the lock is taken drops the packet, as after a timeout.
+     */
+    private void awaitCapacity(Set<Connection> subscribers) {
+        if (server.getConfig().getOverflowPolicy() != OverflowPolicy.BLOCK) {
+            return;
+        }
+        try {
+            for (Connection connection : subscribers) {
+                connection.getOutboundQueue().awaitCapacity();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Ascending message sequences of one token, stored as variable-length deltas in a single byte array.
+ * Every {@link #BLOCK_SIZE} postings start a block whose first sequence and offset are kept uncompressed,
+ * so a lookup or a walk from the newest posting only decodes the blocks it touches.
+ * Not thread-safe, guarded by the {@link SearchIndex} lock.
+ */
+final class PostingList {
+
+    static final int BLOCK_SIZE = 128;
+    private byte[] data;
+    private int length;
+    private long[] blockFirst;
+    private int[] blockOffset;
+    private int blocks;
+    private int size;
+    private long last;
+
+    PostingList() {
+        data = new byte[4];
+        blockFirst = new long[1];
+        blockOffset = new int[1];
+    }
+
+    /**
+     * @param sequence greater than every sequence added before, a repeated one is ignored
+     */
+    void add(long sequence) {
+        if (size > 0 && sequence <= last) {
+            return;
+        }
+        if (size % BLOCK_SIZE == 0) {
+            if (blocks == blockFirst.length) {
+                blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+                blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+            }
+            blockFirst[blocks] = sequence;
+            blockOffset[blocks] = length;
+            blocks++;
+        } else {
+            writeVarLong(sequence - last);
+        }
+        last = sequence;
+        size++;
+    }
+
+    /**
+     * Drops the blocks holding only sequences below the given one.
+     */
+    void removeBefore(long sequence) {
+        int dropped = 0;
+        while (dropped < blocks - 1 && blockFirst[dropped + 1] <= sequence) {
+            dropped++;
+        }
+        if (blocks > 0 && dropped == blocks - 1 && last < sequence) {
+            dropped = blocks;
+        }
+        if (dropped == 0) {
+            return;
+        }
+        int droppedBytes = dropped < blocks ? blockOffset[dropped] : length;
+        System.arraycopy(data, droppedBytes, data, 0, length - droppedBytes);
+        length -= droppedBytes;
+        System.arraycopy(blockFirst, dropped, blockFirst, 0, blocks - dropped);
+        System.arraycopy(blockOffset, dropped, blockOffset, 0, blocks - dropped);
+        blocks -= dropped;
+        for (int i = 0; i < blocks; i++) {
+            blockOffset[i] -= droppedBytes;
+        }
+        size = Math.max(0, size - dropped * BLOCK_SIZE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the block that would hold the sequence, -1 if it is below the first posting
+     */
+    int blockOf(long sequence) {
+        int low = 0;
+        int high = blocks - 1;
+        int block = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (blockFirst[middle] <= sequence) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * @param postings at least {@link #BLOCK_SIZE} long
+     * @return the number of postings of the block decoded into postings in ascending order
+     */
+    int decodeBlock(int block, long[] postings) {
+        int count = block == blocks - 1 ? size - block * BLOCK_SIZE : BLOCK_SIZE;
+        long sequence = blockFirst[block];
+        postings[0] = sequence;
+        int position = blockOffset[block];
+        for (int i = 1; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            sequence += delta;
+            postings[i] = sequence;
+        }
+        return count;
+    }
+
+    private void writeVarLong(long value) {
+        if (length + 10 > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+        }
+        while ((value & ~0x7FL) != 0) {
+            data[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+}
@@ -0,0 +1,88 @@
+package server;
+
+import packet.Packet;
+import packet.PacketType;
+import packet.ProtocolFeature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+class Presence {
+
+    private final Server server;
+    private final AtomicLong rosterVersion;
+
+    Presence(Server server) {
+        this.server = server;
+        rosterVersion = new AtomicLong();
+    }
+
+    long nextRosterVersion() {
+        return rosterVersion.incrementAndGet();
+    }
+
+    Packet newRoster() {
+        Packet packet = new Packet();
+        packet.setType(PacketType.ROSTER);
+        packet.setRosterVersion(rosterVersion.get());
+        packet.setUsers(getUsers());
+        return packet;
+    }
+
+    /**
+     * @return the users of this node and, in a cluster, of the other nodes
+     */
+    List<String> getUsers() {
+        List<String> users = new ArrayList<>(server.getConnectionsMap().keySet());
+        Cluster cluster = server.getCluster();
+        if (cluster != null) {
+            users.addAll(cluster.getRemoteUsers());
+        }
+        return users;
+    }
+
+    void broadcastJoined(Packet login, long version, Connection joined) {
+        broadcast(login, PacketType.USER_JOINED, version, joined);
+    }
+
+    void broadcastLeft(Packet logout, long version) {
+        broadcast(logout, PacketType.USER_LEFT, version, null);
+    }
+
+    /**
+     * Announces a USER_JOINED or USER_LEFT relayed from another node to the local connections.
+     */
+    void broadcastRemote(Packet delta) {
+        Packet legacyPacket = new Packet();
+        legacyPacket.setType(delta.getType() == PacketType.USER_JOINED ? PacketType.LOGIN : PacketType.LOGOUT);
+        legacyPacket.setNickname(delta.getNickname());
+        legacyPacket.setTimestamp(delta.getTimestamp());
+        broadcast(legacyPacket, delta.getType(), nextRosterVersion(), null);
+    }
+
+    private void broadcast(Packet legacyPacket, PacketType deltaType, long version, Connection excluded) {
+        Packet delta = new Packet();
+        delta.setType(deltaType);
+        delta.setTimestamp(legacyPacket.getTimestamp());
+        delta.setNickname(legacyPacket.getNickname());
+        delta.setRosterVersion(version);
+        EncodedPacket encodedDelta = EncodedPacket.of(delta);
+        EncodedPacket encodedLegacyPacket = null;
+        for (Connection connection : server.getConnectionsMap().values()) {
+            if (connection == excluded) {
+                continue;
+            }
+            if (connection.hasFeature(ProtocolFeature.PRESENCE)) {
+                connection.send(encodedDelta);
+                continue;
+            }
+            if (encodedLegacyPacket == null) {
+                legacyPacket.setUsers(getUsers());
+                legacyPacket.setFeatures(null);
+                encodedLegacyPacket = EncodedPacket.of(legacyPacket);
+            }
+            connection.send(encodedLegacyPacket);
+        }
+    }
+}
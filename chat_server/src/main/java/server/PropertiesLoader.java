@@ -1,3 +1,5 @@
+package server;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,16 +11,26 @@ class PropertiesLoader {
 
     private static final Logger log = LoggerFactory.getLogger(PropertiesLoader.class);
     private static final String PROPERTIES_FILE_NAME = "server.properties";
+    private final Properties instance;
 
-    String getPropertyValue(String key) {
-        String propertyValue = "";
-        Properties instance = new Properties();
+    PropertiesLoader() {
+        instance = new Properties();
         try (InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(PROPERTIES_FILE_NAME)) {
             instance.load(inputStream);
-            propertyValue = instance.getProperty(key);
         } catch (IOException e) {
             log.error("Failed to load {}", PROPERTIES_FILE_NAME, e);
         }
-        return propertyValue;
     }
-}
\ No newline at end of file
+
+    String getPropertyValue(String key) {
+        return instance.getProperty(key);
+    }
+
+    String getPropertyValue(String key, String defaultValue) {
+        String propertyValue = instance.getProperty(key);
+        if (propertyValue == null || propertyValue.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return propertyValue.trim();
+    }
+}
@@ -0,0 +1,6 @@
+package server;
+
+enum RateLimitPolicy {
+    DROP,
+    DELAY
+}
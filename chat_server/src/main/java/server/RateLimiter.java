@@ -0,0 +1,135 @@
+package server;
+
+import packet.Packet;
+import packet.PacketType;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the packets clients send, checked by the connections before a packet is handled: each nickname and each
+ * remote address has a {@link TokenBucket}, and one more caps the whole server. A packet over a limit is dropped
+ * with a RATE_LIMITED notice, or with the DELAY policy held back until it fits, which also stops reading from the
+ * client meanwhile. A limit with a rate of 0 is off.
+ * <p>
+ * Buckets are checked from the most specific. A packet refused by a later bucket gives back the tokens it took from
+ * the earlier ones, so a client waiting on the global limit is not charged for every retry.
+ */
+class RateLimiter {
+
+    // Idle buckets are forgotten after this many new ones were created
+    private static final int SWEEP_INTERVAL = 4096;
+    private final Server server;
+    private final RateLimitPolicy policy;
+    private final long maxDelayNanos;
+    private final double nicknameRate;
+    private final int nicknameBurst;
+    private final double addressRate;
+    private final int addressBurst;
+    private final TokenBucket global;
+    private final ConcurrentMap<String, TokenBucket> nicknameBuckets;
+    private final ConcurrentMap<String, TokenBucket> addressBuckets;
+    private final AtomicInteger createdBuckets;
+
+    RateLimiter(Server server) {
+        this.server = server;
+        ServerConfig config = server.getConfig();
+        policy = config.getRateLimitPolicy();
+        maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getRateLimitMaxDelayMillis());
+        nicknameRate = config.getRateLimitNicknamePerSecond();
+        nicknameBurst = config.getRateLimitNicknameBurst();
+        addressRate = config.getRateLimitAddressPerSecond();
+        addressBurst = config.getRateLimitAddressBurst();
+        global = config.getRateLimitGlobalPerSecond() > 0
+                ? new TokenBucket(config.getRateLimitGlobalPerSecond(), config.getRateLimitGlobalBurst()) : null;
+        nicknameBuckets = new ConcurrentHashMap<>();
+        addressBuckets = new ConcurrentHashMap<>();
+        createdBuckets = new AtomicInteger();
+    }
+
+    /**
+     * Takes a token for a packet the connection has received. A dropped packet is answered here.
+     *
+     * @return 0 to handle the packet now, the nanos to wait before asking again, or -1 if it was dropped
+     */
+    long acquire(Connection connection, Packet packet) {
+        if (packet.getType() == PacketType.LOGOUT) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        TokenBucket nicknameBucket = nicknameRate > 0 && connection.getNickname() != null
+                ? bucket(nicknameBuckets, connection.getNickname(), nicknameRate, nicknameBurst, now) : null;
+        long waitNanos = nicknameBucket != null ? nicknameBucket.tryAcquire(now) : 0;
+        TokenBucket addressBucket = null;
+        if (waitNanos == 0 && addressRate > 0) {
+            addressBucket = bucket(addressBuckets, connection.getRemoteAddress(), addressRate, addressBurst, now);
+            waitNanos = addressBucket.tryAcquire(now);
+            if (waitNanos > 0) {
+                release(nicknameBucket);
+            }
+        }
+        if (waitNanos == 0 && global != null) {
+            waitNanos = global.tryAcquire(now);
+            if (waitNanos > 0) {
+                release(nicknameBucket);
+                release(addressBucket);
+            }
+        }
+        if (waitNanos == 0) {
+            return 0;
+        }
+        if (policy == RateLimitPolicy.DELAY && waitNanos <= maxDelayNanos) {
+            server.getMetrics().rateLimited(true);
+            return waitNanos;
+        }
+        server.getMetrics().rateLimited(false);
+        reject(connection, packet, now);
+        return -1;
+    }
+
+    /**
+     * The sender of a private message is always told, it waits for an acknowledgement of each; other packets are
+     * answered at most once a second. Legacy clients do not know RATE_LIMITED, their packets are dropped silently.
+     */
+    private void reject(Connection connection, Packet packet, long now) {
+        if (connection.isLegacy()) {
+            return;
+        }
+        boolean isPrivate = packet.getType() == PacketType.PRIVATE;
+        if (!isPrivate && connection.getRateLimitNotices().tryAcquire(now) > 0) {
+            return;
+        }
+        Packet notice = new Packet();
+        notice.setType(PacketType.RATE_LIMITED);
+        notice.setTimestamp(System.currentTimeMillis());
+        if (isPrivate) {
+            notice.setRecipient(packet.getRecipient());
+        }
+        connection.sendPacket(notice);
+    }
+
+    private TokenBucket bucket(ConcurrentMap<String, TokenBucket> buckets, String key, double rate, int burst,
+                               long now) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, newKey -> new TokenBucket(rate, burst));
+            if (createdBuckets.incrementAndGet() % SWEEP_INTERVAL == 0) {
+                sweep(now);
+            }
+        }
+        return bucket;
+    }
+
+    private static void release(TokenBucket bucket) {
+        if (bucket != null) {
+            bucket.release();
+        }
+    }
+
+    private void sweep(long now) {
+        nicknameBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        addressBuckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+}
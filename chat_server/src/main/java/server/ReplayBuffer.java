@@ -0,0 +1,53 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent sequenced packets, kept so reconnecting clients can catch up without touching the disk.
+ * Sequences are assigned and packets added under the broadcast lock; lookups may come from any thread.
+ */
+class ReplayBuffer {
+
+    private final AtomicReferenceArray<EncodedPacket> packets;
+    private volatile long firstSequence;
+    private volatile long lastSequence;
+
+    ReplayBuffer(int capacity) {
+        packets = new AtomicReferenceArray<>(capacity);
+    }
+
+    void resetSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+        firstSequence = lastSequence + 1;
+    }
+
+    long nextSequence() {
+        return lastSequence + 1;
+    }
+
+    void add(EncodedPacket packet) {
+        long sequence = packet.getSequence();
+        packets.set(slot(sequence), packet);
+        lastSequence = sequence;
+    }
+
+    EncodedPacket get(long sequence) {
+        EncodedPacket packet = packets.get(slot(sequence));
+        return packet != null && packet.getSequence() == sequence ? packet : null;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return the oldest sequence that may still be in memory
+     */
+    long getOldestSequence() {
+        return Math.max(firstSequence, lastSequence - packets.length() + 1);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % packets.length());
+    }
+}
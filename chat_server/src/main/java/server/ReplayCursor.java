@@ -0,0 +1,101 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams the packets a reconnecting client missed, one bounded chunk at a time, from the replay buffer
+ * or, for sequences already evicted from memory, from the message log. Packets of rooms the client is not
+ * a member of are skipped. Used only by the connection's writer.
+ */
+class ReplayCursor {
+
+    private final EncodedPacket trigger;
+    private final ReplayBuffer replayBuffer;
+    private final MessageLog messageLog;
+    private final Set<String> rooms;
+    private final long lastSequence;
+    private final int chunkSize;
+    private final List<EncodedPacket> chunk;
+    private int chunkIndex;
+    private int replayedPackets;
+    private long nextSequence;
+
+    /**
+     * @param trigger the packet after which the replay is written, normally the login response
+     */
+    ReplayCursor(EncodedPacket trigger, ReplayBuffer replayBuffer, MessageLog messageLog, Set<String> rooms,
+                 long afterSequence, long lastSequence, int chunkSize) {
+        this.trigger = trigger;
+        this.replayBuffer = replayBuffer;
+        this.messageLog = messageLog;
+        this.rooms = rooms;
+        this.lastSequence = lastSequence;
+        this.chunkSize = chunkSize;
+        chunk = new ArrayList<>(chunkSize);
+        nextSequence = afterSequence + 1;
+    }
+
+    boolean isTriggeredBy(EncodedPacket packet) {
+        return packet == trigger;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    int getReplayedPackets() {
+        return replayedPackets;
+    }
+
+    /**
+     * @return the next missed packet, or null once the replay is complete
+     */
+    EncodedPacket next() {
+        if (chunkIndex == chunk.size() && !fillChunk()) {
+            return null;
+        }
+        replayedPackets++;
+        return chunk.get(chunkIndex++);
+    }
+
+    private boolean fillChunk() {
+        chunk.clear();
+        chunkIndex = 0;
+        while (chunk.isEmpty() && nextSequence <= lastSequence) {
+            long oldestInMemory = replayBuffer.getOldestSequence();
+            if (nextSequence >= oldestInMemory) {
+                long end = Math.min(lastSequence, nextSequence + chunkSize - 1);
+                for (; nextSequence <= end; nextSequence++) {
+                    EncodedPacket packet = replayBuffer.get(nextSequence);
+                    if (packet != null && rooms.contains(packet.getRoom())) {
+                        chunk.add(packet);
+                    }
+                }
+            } else if (messageLog != null && readFromMessageLog(Math.min(lastSequence, oldestInMemory - 1)) > 0) {
+                continue;
+            } else {
+                nextSequence = oldestInMemory;
+            }
+        }
+        return !chunk.isEmpty();
+    }
+
+    private int readFromMessageLog(long end) {
+        long from = Math.max(nextSequence, messageLog.getFirstSequence());
+        int maxRecords = (int) Math.min(chunkSize, end - from + 1);
+        if (maxRecords <= 0) {
+            return 0;
+        }
+        long[] lastRead = new long[1];
+        int read = messageLog.read(from, maxRecords, (sequence, timestamp, packet) -> {
+            if (sequence <= end && rooms.contains(Rooms.roomOf(packet.getRoom()))) {
+                chunk.add(EncodedPacket.of(packet));
+            }
+            lastRead[0] = sequence;
+        });
+        nextSequence = read == 0 ? end + 1 : Math.min(end, lastRead[0]) + 1;
+        return read;
+    }
+}
@@ -0,0 +1,90 @@
+package server;
+
+import packet.Packet;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Subscriber sets of the chat rooms, so a room's packets are only fanned out to its members.
+ * A room exists while it has members; joins and parts of the same room are serialized by the map.
+ */
+class Rooms {
+
+    static final int MAX_ROOM_NAME_LENGTH = 32;
+    private final ConcurrentMap<String, Set<Connection>> subscribers;
+
+    Rooms() {
+        subscribers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return false if the connection already was a member
+     */
+    boolean join(String room, Connection connection) {
+        boolean[] isAdded = new boolean[1];
+        subscribers.compute(room, (name, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            isAdded[0] = members.add(connection);
+            return members;
+        });
+        connection.getRooms().add(room);
+        return isAdded[0];
+    }
+
+    /**
+     * @return false if the connection was not a member
+     */
+    boolean part(String room, Connection connection) {
+        connection.getRooms().remove(room);
+        boolean[] isRemoved = new boolean[1];
+        subscribers.computeIfPresent(room, (name, members) -> {
+            isRemoved[0] = members.remove(connection);
+            return members.isEmpty() ? null : members;
+        });
+        return isRemoved[0];
+    }
+
+    void partAll(Connection connection) {
+        for (String room : connection.getRooms()) {
+            part(room, connection);
+        }
+    }
+
+    Set<Connection> getSubscribers(String room) {
+        Set<Connection> members = subscribers.get(room);
+        return members != null ? members : Collections.emptySet();
+    }
+
+    int size() {
+        return subscribers.size();
+    }
+
+    static boolean isValidName(String room) {
+        if (room == null || room.isEmpty() || room.length() > MAX_ROOM_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < room.length(); i++) {
+            if (Character.isWhitespace(room.charAt(i)) || Character.isISOControl(room.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * CHAT packets of the default room go out without a room, which keeps them readable by clients that
+     * know nothing about rooms.
+     */
+    static String roomOf(String wireRoom) {
+        return wireRoom == null ? Packet.DEFAULT_ROOM : wireRoom;
+    }
+
+    static String wireRoom(String room) {
+        return Packet.DEFAULT_ROOM.equals(room) ? null : room;
+    }
+}
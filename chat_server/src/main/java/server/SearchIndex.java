@@ -0,0 +1,280 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Inverted index of the CHAT messages in the {@link MessageLog}: every token maps to the {@link PostingList} of the
+ * messages containing it. A dedicated thread tails the log, so broadcasting never waits for indexing, and on startup
+ * the index is rebuilt from the segments on disk. Searches run concurrently under a read lock.
+ */
+class SearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+    private static final int READ_BATCH_SIZE = 1024;
+    private static final int MAX_TOKEN_LENGTH = 32;
+    private static final int MAX_QUERY_TOKENS = 8;
+    // Matches visited per requested hit before a page gives up, when most matches are in rooms the user is not in
+    private static final int MAX_MATCHES_PER_HIT = 64;
+    private final long intervalMillis;
+    private final Map<String, PostingList> postings;
+    private final ReadWriteLock lock;
+    private MessageLog messageLog;
+    private volatile long lastSequence;
+    private long retainedFromSequence;
+    private volatile boolean isRunning;
+    private Thread indexer;
+
+    SearchIndex(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        postings = new HashMap<>();
+        lock = new ReentrantReadWriteLock();
+    }
+
+    void start(MessageLog messageLog) {
+        this.messageLog = messageLog;
+        isRunning = true;
+        indexer = new Thread(this::indexMessages, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    void close() {
+        isRunning = false;
+        if (indexer == null) {
+            return;
+        }
+        indexer.interrupt();
+        try {
+            indexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Indexes a message, sequences must be added in ascending order.
+     */
+    void add(long sequence, String text) {
+        add(new long[]{sequence}, new String[]{text}, 1);
+    }
+
+    private void add(long[] sequences, String[] messages, int count) {
+        List<List<String>> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(tokenize(messages[i]));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                long sequence = sequences[i];
+                for (String token : tokens.get(i)) {
+                    postings.computeIfAbsent(token, key -> new PostingList()).add(sequence);
+                }
+            }
+            lastSequence = sequences[count - 1];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the messages containing every token of the query, newest first.
+     *
+     * @param beforeSequence only messages below it are visited, 0 - from the newest
+     * @param visitor        returns false if the message does not count as a hit, e.g. it is from another room
+     * @return the sequence to continue below with the next page, 0 if there are no more matches
+     */
+    long search(String query, long beforeSequence, int maxHits, LongPredicate visitor) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return 0;
+        }
+        long before = beforeSequence > 0 ? beforeSequence : Long.MAX_VALUE;
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[Math.min(tokens.size(), MAX_QUERY_TOKENS)];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings.get(tokens.get(i));
+                if (lists[i] == null) {
+                    return 0;
+                }
+            }
+            // Walk the rarest token and look the candidates up in the others
+            Arrays.sort(lists, Comparator.comparingInt(PostingList::size));
+            Cursor[] others = new Cursor[lists.length - 1];
+            for (int i = 0; i < others.length; i++) {
+                others[i] = new Cursor(lists[i + 1]);
+            }
+            long[] block = new long[PostingList.BLOCK_SIZE];
+            int hits = 0;
+            int matches = 0;
+            for (int b = lists[0].blockOf(before - 1); b >= 0; b--) {
+                for (int i = lists[0].decodeBlock(b, block) - 1; i >= 0; i--) {
+                    long sequence = block[i];
+                    if (sequence >= before || !containsAll(others, sequence)) {
+                        continue;
+                    }
+                    if (visitor.test(sequence) && ++hits == maxHits || ++matches == maxHits * MAX_MATCHES_PER_HIT) {
+                        return sequence;
+                    }
+                }
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    int getTokens() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lower-cased runs of letters and digits, each token once. Longer tokens than {@link #MAX_TOKEN_LENGTH} are
+     * mostly links and are not indexed.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isTokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isTokenChar && start < 0) {
+                start = i;
+            } else if (!isTokenChar && start >= 0) {
+                if (i - start <= MAX_TOKEN_LENGTH) {
+                    String token = text.substring(start, i).toLowerCase();
+                    if (!tokens.contains(token)) {
+                        tokens.add(token);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private void indexMessages() {
+        long startNanos = System.nanoTime();
+        boolean isRebuilt = false;
+        long[] sequences = new long[READ_BATCH_SIZE];
+        String[] messages = new String[READ_BATCH_SIZE];
+        while (isRunning) {
+            try {
+                int read = 0;
+                if (lastSequence < messageLog.getLastSequence()) {
+                    int[] count = new int[1];
+                    read = messageLog.read(lastSequence + 1, READ_BATCH_SIZE, (sequence, timestamp, packet) -> {
+                        sequences[count[0]] = sequence;
+                        messages[count[0]++] = packet != null ? packet.getMessage() : null;
+                    });
+                    if (read > 0) {
+                        add(sequences, messages, read);
+                        Arrays.fill(messages, null);
+                    }
+                }
+                if (read == READ_BATCH_SIZE) {
+                    continue;
+                }
+                if (!isRebuilt) {
+                    isRebuilt = true;
+                    log.info("Search index built up to sequence {} with {} tokens in {} ms", lastSequence, getTokens(),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                }
+                applyRetention();
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("Failed to index messages after sequence {}", lastSequence, e);
+            }
+        }
+    }
+
+    /**
+     * Forgets the messages of the segments the log has deleted.
+     */
+    private void applyRetention() {
+        long firstSequence = messageLog.getFirstSequence();
+        if (firstSequence - retainedFromSequence < PostingList.BLOCK_SIZE) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Iterator<PostingList> iterator = postings.values().iterator();
+            while (iterator.hasNext()) {
+                PostingList list = iterator.next();
+                list.removeBefore(firstSequence);
+                if (list.getBlocks() == 0) {
+                    iterator.remove();
+                }
+            }
+            retainedFromSequence = firstSequence;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean containsAll(Cursor[] cursors, long sequence) {
+        for (Cursor cursor : cursors) {
+            if (!cursor.contains(sequence)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks up descending sequences in a posting list, decoding each block once.
+     */
+    private static final class Cursor {
+
+        private final PostingList list;
+        private final long[] block;
+        private int blockIndex;
+        private int count;
+
+        private Cursor(PostingList list) {
+            this.list = list;
+            block = new long[PostingList.BLOCK_SIZE];
+            blockIndex = -1;
+        }
+
+        private boolean contains(long sequence) {
+            int index = list.blockOf(sequence);
+            if (index < 0) {
+                return false;
+            }
+            if (index != blockIndex) {
+                count = list.decodeBlock(index, block);
+                blockIndex = index;
+            }
+            return Arrays.binarySearch(block, 0, count, sequence) >= 0;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.Packet;
+import packet.PacketType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Server {
+
+    private static final Logger log = LoggerFactory.getLogger(Server.class);
+    private static final long DRAIN_POLL_MILLIS = 50;
+    private final ServerConfig config;
+    private final PacketHandler packetHandler;
+    private final Presence presence;
+    private final OutboundQueueStats outboundQueueStats;
+    private final ServerMetrics metrics;
+    private final ReplayBuffer replayBuffer;
+    private final Rooms rooms;
+    private final RateLimiter rateLimiter;
+    private MetricsReporter metricsReporter;
+    private volatile MessageLog messageLog;
+    private volatile SearchIndex searchIndex;
+    private ExecutorService searchExecutor;
+    private volatile Cluster cluster;
+    private ServerSocket socket;
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] eventLoops;
+    private ExecutorService connectionExecutor;
+    private ExecutorService writerExecutor;
+    private volatile boolean isRunning = false;
+    private volatile boolean isDraining = false;
+    private ConcurrentMap<String, Connection> connections;
+    // Every accepted connection until it is closed, logged in or not
+    private final Set<Connection> openConnections;
+
+    Server(ServerConfig config) {
+        if (config.getServerMode() == ServerMode.NIO && config.getOverflowPolicy() == OverflowPolicy.BLOCK) {
+            // An event loop waiting for room in an outbound queue would stop flushing the queues it serves
+            throw new IllegalArgumentException("Overflow policy BLOCK is not supported in NIO mode");
+        }
+        this.config = config;
+        packetHandler = new PacketHandler(this);
+        presence = new Presence(this);
+        outboundQueueStats = new OutboundQueueStats();
+        metrics = new ServerMetrics(this);
+        replayBuffer = new ReplayBuffer(config.getReplayBufferSize());
+        rooms = new Rooms();
+        rateLimiter = new RateLimiter(this);
+        connections = new ConcurrentHashMap<>();
+        openConnections = ConcurrentHashMap.newKeySet();
+    }
+
+    void startServer() {
+        startMetrics();
+        openMessageLog();
+        startSearchIndex();
+        startCluster();
+        if (config.getServerMode() == ServerMode.NIO) {
+            startNioServer();
+        } else {
+            startBlockingServer();
+        }
+    }
+
+    private void startBlockingServer() {
+        int serverPort = config.getServerPort();
+        try {
+            socket = new ServerSocket(serverPort);
+            log.info("Server socket initialized on port {}", serverPort);
+        } catch (IOException e) {
+            log.error("Failed initialize server socket on port {}", serverPort);
+            return;
+        }
+
+        ConnectionExecutorFactory executorFactory = new ConnectionExecutorFactory();
+        connectionExecutor = executorFactory.create(config);
+        writerExecutor = executorFactory.createWriters(config);
+        isRunning = true;
+        new Thread(() -> {
+            while (isRunning) {
+                try {
+                    Socket clientSocket = socket.accept();
+                    metrics.connectionAccepted();
+                    log.debug("Accepted connection from {}", clientSocket);
+
+                    ConnectionHandler connection = new ConnectionHandler(this, clientSocket);
+                    connectionOpened(connection);
+                    try {
+                        connectionExecutor.execute(connection);
+                    } catch (RejectedExecutionException e) {
+                        log.error("Failed to schedule connection {}", clientSocket, e);
+                        connection.close();
+                        connectionClosed(connection);
+                        metrics.connectionClosed();
+                    }
+                } catch (IOException e) {
+                    if (isRunning) {
+                        log.error("Failed to connect to client on socket {}", socket);
+                    }
+                }
+            }
+
+        }).start();
+    }
+
+    private void startNioServer() {
+        int serverPort = config.getServerPort();
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(serverPort));
+            eventLoops = new NioEventLoop[config.getEventLoopThreads()];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop(this);
+            }
+            log.info("Server channel initialized on port {} with {} event loops", serverPort, eventLoops.length);
+        } catch (IOException e) {
+            log.error("Failed initialize server channel on port {}", serverPort, e);
+            return;
+        }
+
+        isRunning = true;
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i].start("nio-event-loop-" + i);
+        }
+        new Thread(() -> {
+            int next = 0;
+            while (isRunning) {
+                try {
+                    SocketChannel clientChannel = serverChannel.accept();
+                    metrics.connectionAccepted();
+                    log.debug("Accepted connection from {}", clientChannel);
+                    eventLoops[next].register(clientChannel);
+                    next = (next + 1) % eventLoops.length;
+                } catch (IOException e) {
+                    if (isRunning) {
+                        log.error("Failed to connect to client on channel {}", serverChannel);
+                    }
+                }
+            }
+        }, "nio-acceptor").start();
+    }
+
+    private void startMetrics() {
+        if (config.isMetricsJmxEnabled()) {
+            metrics.registerMBean();
+        }
+        if (config.getMetricsFile() != null && config.getMetricsDumpIntervalSeconds() > 0) {
+            metricsReporter = new MetricsReporter(this, metrics, config.getMetricsFile(),
+                    config.getMetricsDumpIntervalSeconds());
+            metricsReporter.start();
+        }
+    }
+
+    private void openMessageLog() {
+        if (!config.isMessageLogEnabled()) {
+            return;
+        }
+        MessageLog newMessageLog = new MessageLog(config);
+        try {
+            newMessageLog.open();
+            messageLog = newMessageLog;
+            replayBuffer.resetSequence(newMessageLog.getLastSequence());
+        } catch (IOException e) {
+            log.error("Failed to open message log in {}, chat history is disabled", config.getMessageLogDirectory(), e);
+        }
+    }
+
+    private void startSearchIndex() {
+        if (!config.isSearchEnabled() || messageLog == null) {
+            return;
+        }
+        SearchIndex newSearchIndex = new SearchIndex(config.getSearchIndexIntervalMillis());
+        newSearchIndex.start(messageLog);
+        if (config.getServerMode() == ServerMode.NIO) {
+            // Reading hits back from the log would stall every connection of an event loop
+            AtomicInteger counter = new AtomicInteger();
+            searchExecutor = Executors.newFixedThreadPool(config.getSearchThreads(),
+                    runnable -> new Thread(runnable, "search-" + counter.getAndIncrement()));
+        }
+        searchIndex = newSearchIndex;
+    }
+
+    private void startCluster() {
+        if (!config.isClusterEnabled()) {
+            return;
+        }
+        Cluster newCluster = new Cluster(this, newMessageBus());
+        // Set first: peers may relay to this node as soon as the bus is started
+        cluster = newCluster;
+        try {
+            newCluster.start();
+        } catch (IOException e) {
+            cluster = null;
+            newCluster.close();
+            log.error("Failed to join cluster on port {}, running standalone", config.getClusterPort(), e);
+        }
+    }
+
+    private MessageBus newMessageBus() {
+        return new TcpMessageBus(config);
+    }
+
+    /**
+     * Stops accepting, then drains: every client is sent what is queued for it followed by SERVER_SHUTDOWN with a
+     * random reconnect delay, so they do not all come back at once, legacy clients by the end of the stream alone.
+     * Connections still open after the drain timeout are closed, including those that have not logged in.
+     */
+    public synchronized void stopServer() {
+        if (isDraining) {
+            return;
+        }
+        isDraining = true;
+        isRunning = false;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            log.error("Failed to stop server.", e);
+        }
+        drainConnections();
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+        }
+        metrics.unregisterMBean();
+        // Every socket is closed by now, so readers and writers still running only need interrupting
+        if (connectionExecutor != null) {
+            connectionExecutor.shutdownNow();
+        }
+        if (writerExecutor != null) {
+            writerExecutor.shutdownNow();
+        }
+        if (eventLoops != null) {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.stop();
+            }
+        }
+        if (cluster != null) {
+            cluster.close();
+        }
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+            try {
+                // Searches read the message log, which is closed next
+                searchExecutor.awaitTermination(config.getShutdownDrainTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (searchIndex != null) {
+            searchIndex.close();
+        }
+        if (messageLog != null) {
+            messageLog.close();
+        }
+    }
+
+    private void drainConnections() {
+        long minDelayMillis = config.getShutdownReconnectDelayMillis();
+        long spreadMillis = config.getShutdownReconnectSpreadMillis();
+        int drained = connections.size();
+        for (Connection connection : connections.values()) {
+            if (connection.isLegacy()) {
+                // Legacy clients do not know SERVER_SHUTDOWN, they just read to the end of what is queued
+                connection.send(EncodedPacket.end());
+                continue;
+            }
+            Packet packet = new Packet();
+            packet.setType(PacketType.SERVER_SHUTDOWN);
+            packet.setTimestamp(System.currentTimeMillis());
+            packet.setReconnectDelayMillis(minDelayMillis + ThreadLocalRandom.current().nextLong(spreadMillis + 1));
+            connection.send(EncodedPacket.last(packet));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getShutdownDrainTimeoutMillis());
+        try {
+            while (!connections.isEmpty() && deadline - System.nanoTime() > 0) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Drained {} of {} connections", drained - connections.size(), drained);
+        for (Connection connection : openConnections) {
+            connection.close();
+        }
+    }
+
+    void connectionOpened(Connection connection) {
+        openConnections.add(connection);
+    }
+
+    void connectionClosed(Connection connection) {
+        openConnections.remove(connection);
+    }
+
+    /**
+     * @return true once the server is stopping, clients are leaving and are not told about each other
+     */
+    boolean isDraining() {
+        return isDraining;
+    }
+
+    ConcurrentMap<String, Connection> getConnectionsMap() {
+        return connections;
+    }
+
+    PacketHandler getPacketHandler() {
+        return packetHandler;
+    }
+
+    Presence getPresence() {
+        return presence;
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(config, outboundQueueStats);
+    }
+
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    MessageLog getMessageLog() {
+        return messageLog;
+    }
+
+    /**
+     * @return null if search is disabled or there is no message log to index
+     */
+    SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * @return null unless search runs in NIO mode; in blocking mode a search runs on the reader of its connection
+     */
+    ExecutorService getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    /**
+     * @return null unless the server runs in a cluster
+     */
+    Cluster getCluster() {
+        return cluster;
+    }
+
+    ReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
+    Rooms getRooms() {
+        return rooms;
+    }
+
+    OutboundQueueStats getOutboundQueueStats() {
+        return outboundQueueStats;
+    }
+
+    long getOutboundQueueDepth() {
+        long depth = 0;
+        for (Connection connection : connections.values()) {
+            depth += connection.getOutboundQueue().getDepth();
+        }
+        return depth;
+    }
+
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    ExecutorService getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    ExecutorService getWriterExecutor() {
+        return writerExecutor;
+    }
+}
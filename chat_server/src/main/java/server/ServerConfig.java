@@ -0,0 +1,525 @@
+package server;
+
+class ServerConfig {
+
+    private int serverPort = 8228;
+    private ServerMode serverMode = ServerMode.BLOCKING;
+    private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+    private ConnectionExecution connectionExecution = ConnectionExecution.THREAD;
+    private int connectionPoolSize = 1024;
+    private int maxFrameBytes = 64 * 1024;
+    private int outboundQueueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long overflowBlockTimeoutMillis = 100;
+    private int writeCoalesceMaxBytes = 64 * 1024;
+    private long writeCoalesceDelayMicros = 200;
+    private boolean isMetricsJmxEnabled = true;
+    private String metricsFile = "log/metrics.txt";
+    private long metricsDumpIntervalSeconds = 10;
+    private boolean isMessageLogEnabled = true;
+    private String messageLogDirectory = "history";
+    private int messageLogSegmentBytes = 64 * 1024 * 1024;
+    private long messageLogRetentionBytes = 1024L * 1024 * 1024;
+    private long messageLogRetentionHours = 7 * 24;
+    private long messageLogFlushIntervalMillis = 1000;
+    private int messageLogQueueCapacity = 64 * 1024;
+    private int replayBufferSize = 10000;
+    private int replayChunkSize = 256;
+    private int replayMaxPackets = 10000;
+    private int maxRoomsPerConnection = 32;
+    private boolean isClusterEnabled = false;
+    private String clusterNodeId;
+    private int clusterPort = 8328;
+    private String clusterPeers;
+    private long clusterReserveTimeoutMillis = 2000;
+    private long clusterReconnectDelayMillis = 1000;
+    private boolean isSearchEnabled = true;
+    private int searchPageSize = 20;
+    private long searchIndexIntervalMillis = 100;
+    private int searchThreads = 2;
+    private boolean isDeflateEnabled = true;
+    private long shutdownDrainTimeoutMillis = 5000;
+    private long shutdownReconnectDelayMillis = 1000;
+    private long shutdownReconnectSpreadMillis = 10000;
+    private RateLimitPolicy rateLimitPolicy = RateLimitPolicy.DROP;
+    private long rateLimitMaxDelayMillis = 1000;
+    private int rateLimitNicknamePerSecond = 20;
+    private int rateLimitNicknameBurst = 40;
+    private int rateLimitAddressPerSecond = 0;
+    private int rateLimitAddressBurst = 200;
+    private int rateLimitGlobalPerSecond = 0;
+    private int rateLimitGlobalBurst = 10000;
+
+    static ServerConfig load() {
+        PropertiesLoader properties = new PropertiesLoader();
+        ServerConfig config = new ServerConfig();
+        config.setServerPort(Integer.parseInt(properties.getPropertyValue("SERVER_PORT")));
+        config.setServerMode(ServerMode.valueOf(
+                properties.getPropertyValue("SERVER_MODE", config.getServerMode().name()).toUpperCase()));
+        int eventLoopThreads = Integer.parseInt(properties.getPropertyValue("NIO_EVENT_LOOP_THREADS", "0"));
+        if (eventLoopThreads > 0) {
+            config.setEventLoopThreads(eventLoopThreads);
+        }
+        config.setConnectionExecution(ConnectionExecution.valueOf(
+                properties.getPropertyValue("CONNECTION_EXECUTION", config.getConnectionExecution().name()).toUpperCase()));
+        config.setConnectionPoolSize(Integer.parseInt(
+                properties.getPropertyValue("CONNECTION_POOL_SIZE", String.valueOf(config.getConnectionPoolSize()))));
+        config.setMaxFrameBytes(Integer.parseInt(
+                properties.getPropertyValue("MAX_FRAME_BYTES", String.valueOf(config.getMaxFrameBytes()))));
+        config.setOutboundQueueCapacity(Integer.parseInt(
+                properties.getPropertyValue("OUTBOUND_QUEUE_CAPACITY", String.valueOf(config.getOutboundQueueCapacity()))));
+        config.setOverflowPolicy(OverflowPolicy.valueOf(
+                properties.getPropertyValue("OUTBOUND_OVERFLOW_POLICY", config.getOverflowPolicy().name()).toUpperCase()));
+        config.setOverflowBlockTimeoutMillis(Long.parseLong(properties.getPropertyValue(
+                "OUTBOUND_BLOCK_TIMEOUT_MILLIS", String.valueOf(config.getOverflowBlockTimeoutMillis()))));
+        config.setWriteCoalesceMaxBytes(Integer.parseInt(properties.getPropertyValue(
+                "WRITE_COALESCE_MAX_BYTES", String.valueOf(config.getWriteCoalesceMaxBytes()))));
+        config.setWriteCoalesceDelayMicros(Long.parseLong(properties.getPropertyValue(
+                "WRITE_COALESCE_DELAY_MICROS", String.valueOf(config.getWriteCoalesceDelayMicros()))));
+        config.setMetricsJmxEnabled(Boolean.parseBoolean(properties.getPropertyValue(
+                "METRICS_JMX_ENABLED", String.valueOf(config.isMetricsJmxEnabled()))));
+        config.setMetricsFile(properties.getPropertyValue("METRICS_FILE", config.getMetricsFile()));
+        config.setMetricsDumpIntervalSeconds(Long.parseLong(properties.getPropertyValue(
+                "METRICS_DUMP_INTERVAL_SECONDS", String.valueOf(config.getMetricsDumpIntervalSeconds()))));
+        config.setMessageLogEnabled(Boolean.parseBoolean(properties.getPropertyValue(
+                "MESSAGE_LOG_ENABLED", String.valueOf(config.isMessageLogEnabled()))));
+        config.setMessageLogDirectory(properties.getPropertyValue("MESSAGE_LOG_DIRECTORY", config.getMessageLogDirectory()));
+        config.setMessageLogSegmentBytes(Integer.parseInt(properties.getPropertyValue(
+                "MESSAGE_LOG_SEGMENT_BYTES", String.valueOf(config.getMessageLogSegmentBytes()))));
+        config.setMessageLogRetentionBytes(Long.parseLong(properties.getPropertyValue(
+                "MESSAGE_LOG_RETENTION_BYTES", String.valueOf(config.getMessageLogRetentionBytes()))));
+        config.setMessageLogRetentionHours(Long.parseLong(properties.getPropertyValue(
+                "MESSAGE_LOG_RETENTION_HOURS", String.valueOf(config.getMessageLogRetentionHours()))));
+        config.setMessageLogFlushIntervalMillis(Long.parseLong(properties.getPropertyValue(
+                "MESSAGE_LOG_FLUSH_INTERVAL_MILLIS", String.valueOf(config.getMessageLogFlushIntervalMillis()))));
+        config.setMessageLogQueueCapacity(Integer.parseInt(properties.getPropertyValue(
+                "MESSAGE_LOG_QUEUE_CAPACITY", String.valueOf(config.getMessageLogQueueCapacity()))));
+        config.setReplayBufferSize(Integer.parseInt(properties.getPropertyValue(
+                "REPLAY_BUFFER_SIZE", String.valueOf(config.getReplayBufferSize()))));
+        config.setReplayChunkSize(Integer.parseInt(properties.getPropertyValue(
+                "REPLAY_CHUNK_SIZE", String.valueOf(config.getReplayChunkSize()))));
+        config.setReplayMaxPackets(Integer.parseInt(properties.getPropertyValue(
+                "REPLAY_MAX_PACKETS", String.valueOf(config.getReplayMaxPackets()))));
+        config.setMaxRoomsPerConnection(Integer.parseInt(properties.getPropertyValue(
+                "MAX_ROOMS_PER_CONNECTION", String.valueOf(config.getMaxRoomsPerConnection()))));
+        config.setClusterEnabled(Boolean.parseBoolean(properties.getPropertyValue(
+                "CLUSTER_ENABLED", String.valueOf(config.isClusterEnabled()))));
+        config.setClusterPort(Integer.parseInt(properties.getPropertyValue(
+                "CLUSTER_PORT", String.valueOf(config.getClusterPort()))));
+        config.setClusterNodeId(properties.getPropertyValue("CLUSTER_NODE_ID", "node-" + config.getClusterPort()));
+        config.setClusterPeers(properties.getPropertyValue("CLUSTER_PEERS", config.getClusterPeers()));
+        config.setClusterReserveTimeoutMillis(Long.parseLong(properties.getPropertyValue(
+                "CLUSTER_RESERVE_TIMEOUT_MILLIS", String.valueOf(config.getClusterReserveTimeoutMillis()))));
+        config.setClusterReconnectDelayMillis(Long.parseLong(properties.getPropertyValue(
+                "CLUSTER_RECONNECT_DELAY_MILLIS", String.valueOf(config.getClusterReconnectDelayMillis()))));
+        config.setSearchEnabled(Boolean.parseBoolean(properties.getPropertyValue(
+                "SEARCH_ENABLED", String.valueOf(config.isSearchEnabled()))));
+        config.setSearchPageSize(Integer.parseInt(properties.getPropertyValue(
+                "SEARCH_PAGE_SIZE", String.valueOf(config.getSearchPageSize()))));
+        config.setSearchIndexIntervalMillis(Long.parseLong(properties.getPropertyValue(
+                "SEARCH_INDEX_INTERVAL_MILLIS", String.valueOf(config.getSearchIndexIntervalMillis()))));
+        config.setSearchThreads(Integer.parseInt(properties.getPropertyValue(
+                "SEARCH_THREADS", String.valueOf(config.getSearchThreads()))));
+        config.setDeflateEnabled(Boolean.parseBoolean(properties.getPropertyValue(
+                "DEFLATE_ENABLED", String.valueOf(config.isDeflateEnabled()))));
+        config.setShutdownDrainTimeoutMillis(Long.parseLong(properties.getPropertyValue(
+                "SHUTDOWN_DRAIN_TIMEOUT_MILLIS", String.valueOf(config.getShutdownDrainTimeoutMillis()))));
+        config.setShutdownReconnectDelayMillis(Long.parseLong(properties.getPropertyValue(
+                "SHUTDOWN_RECONNECT_DELAY_MILLIS", String.valueOf(config.getShutdownReconnectDelayMillis()))));
+        config.setShutdownReconnectSpreadMillis(Long.parseLong(properties.getPropertyValue(
+                "SHUTDOWN_RECONNECT_SPREAD_MILLIS", String.valueOf(config.getShutdownReconnectSpreadMillis()))));
+        config.setRateLimitPolicy(RateLimitPolicy.valueOf(
+                properties.getPropertyValue("RATE_LIMIT_POLICY", config.getRateLimitPolicy().name()).toUpperCase()));
+        config.setRateLimitMaxDelayMillis(Long.parseLong(properties.getPropertyValue(
+                "RATE_LIMIT_MAX_DELAY_MILLIS", String.valueOf(config.getRateLimitMaxDelayMillis()))));
+        config.setRateLimitNicknamePerSecond(Integer.parseInt(properties.getPropertyValue(
+                "RATE_LIMIT_NICKNAME_PER_SECOND", String.valueOf(config.getRateLimitNicknamePerSecond()))));
+        config.setRateLimitNicknameBurst(Integer.parseInt(properties.getPropertyValue(
+                "RATE_LIMIT_NICKNAME_BURST", String.valueOf(config.getRateLimitNicknameBurst()))));
+        config.setRateLimitAddressPerSecond(Integer.parseInt(properties.getPropertyValue(
+                "RATE_LIMIT_ADDRESS_PER_SECOND", String.valueOf(config.getRateLimitAddressPerSecond()))));
+        config.setRateLimitAddressBurst(Integer.parseInt(properties.getPropertyValue(
+                "RATE_LIMIT_ADDRESS_BURST", String.valueOf(config.getRateLimitAddressBurst()))));
+        config.setRateLimitGlobalPerSecond(Integer.parseInt(properties.getPropertyValue(
+                "RATE_LIMIT_GLOBAL_PER_SECOND", String.valueOf(config.getRateLimitGlobalPerSecond()))));
+        config.setRateLimitGlobalBurst(Integer.parseInt(properties.getPropertyValue(
+                "RATE_LIMIT_GLOBAL_BURST", String.valueOf(config.getRateLimitGlobalBurst()))));
+        return config;
+    }
+
+    int getServerPort() {
+        return serverPort;
+    }
+
+    void setServerPort(int serverPort) {
+        this.serverPort = serverPort;
+    }
+
+    ServerMode getServerMode() {
+        return serverMode;
+    }
+
+    void setServerMode(ServerMode serverMode) {
+        this.serverMode = serverMode;
+    }
+
+    int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    ConnectionExecution getConnectionExecution() {
+        return connectionExecution;
+    }
+
+    void setConnectionExecution(ConnectionExecution connectionExecution) {
+        this.connectionExecution = connectionExecution;
+    }
+
+    int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    void setMaxFrameBytes(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    int getOutboundQueueCapacity() {
+        return outboundQueueCapacity;
+    }
+
+    void setOutboundQueueCapacity(int outboundQueueCapacity) {
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    long getOverflowBlockTimeoutMillis() {
+        return overflowBlockTimeoutMillis;
+    }
+
+    void setOverflowBlockTimeoutMillis(long overflowBlockTimeoutMillis) {
+        this.overflowBlockTimeoutMillis = overflowBlockTimeoutMillis;
+    }
+
+    int getWriteCoalesceMaxBytes() {
+        return writeCoalesceMaxBytes;
+    }
+
+    void setWriteCoalesceMaxBytes(int writeCoalesceMaxBytes) {
+        this.writeCoalesceMaxBytes = writeCoalesceMaxBytes;
+    }
+
+    long getWriteCoalesceDelayMicros() {
+        return writeCoalesceDelayMicros;
+    }
+
+    void setWriteCoalesceDelayMicros(long writeCoalesceDelayMicros) {
+        this.writeCoalesceDelayMicros = writeCoalesceDelayMicros;
+    }
+
+    boolean isMetricsJmxEnabled() {
+        return isMetricsJmxEnabled;
+    }
+
+    void setMetricsJmxEnabled(boolean metricsJmxEnabled) {
+        isMetricsJmxEnabled = metricsJmxEnabled;
+    }
+
+    String getMetricsFile() {
+        return metricsFile;
+    }
+
+    void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    long getMetricsDumpIntervalSeconds() {
+        return metricsDumpIntervalSeconds;
+    }
+
+    void setMetricsDumpIntervalSeconds(long metricsDumpIntervalSeconds) {
+        this.metricsDumpIntervalSeconds = metricsDumpIntervalSeconds;
+    }
+
+    boolean isMessageLogEnabled() {
+        return isMessageLogEnabled;
+    }
+
+    void setMessageLogEnabled(boolean messageLogEnabled) {
+        isMessageLogEnabled = messageLogEnabled;
+    }
+
+    String getMessageLogDirectory() {
+        return messageLogDirectory;
+    }
+
+    void setMessageLogDirectory(String messageLogDirectory) {
+        this.messageLogDirectory = messageLogDirectory;
+    }
+
+    int getMessageLogSegmentBytes() {
+        return messageLogSegmentBytes;
+    }
+
+    void setMessageLogSegmentBytes(int messageLogSegmentBytes) {
+        this.messageLogSegmentBytes = messageLogSegmentBytes;
+    }
+
+    long getMessageLogRetentionBytes() {
+        return messageLogRetentionBytes;
+    }
+
+    void setMessageLogRetentionBytes(long messageLogRetentionBytes) {
+        this.messageLogRetentionBytes = messageLogRetentionBytes;
+    }
+
+    long getMessageLogRetentionHours() {
+        return messageLogRetentionHours;
+    }
+
+    void setMessageLogRetentionHours(long messageLogRetentionHours) {
+        this.messageLogRetentionHours = messageLogRetentionHours;
+    }
+
+    long getMessageLogFlushIntervalMillis() {
+        return messageLogFlushIntervalMillis;
+    }
+
+    void setMessageLogFlushIntervalMillis(long messageLogFlushIntervalMillis) {
+        this.messageLogFlushIntervalMillis = messageLogFlushIntervalMillis;
+    }
+
+    int getMessageLogQueueCapacity() {
+        return messageLogQueueCapacity;
+    }
+
+    void setMessageLogQueueCapacity(int messageLogQueueCapacity) {
+        this.messageLogQueueCapacity = messageLogQueueCapacity;
+    }
+
+    int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    void setReplayBufferSize(int replayBufferSize) {
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    int getReplayChunkSize() {
+        return replayChunkSize;
+    }
+
+    void setReplayChunkSize(int replayChunkSize) {
+        this.replayChunkSize = replayChunkSize;
+    }
+
+    int getReplayMaxPackets() {
+        return replayMaxPackets;
+    }
+
+    void setReplayMaxPackets(int replayMaxPackets) {
+        this.replayMaxPackets = replayMaxPackets;
+    }
+
+    int getMaxRoomsPerConnection() {
+        return maxRoomsPerConnection;
+    }
+
+    void setMaxRoomsPerConnection(int maxRoomsPerConnection) {
+        this.maxRoomsPerConnection = maxRoomsPerConnection;
+    }
+
+    boolean isClusterEnabled() {
+        return isClusterEnabled;
+    }
+
+    void setClusterEnabled(boolean isClusterEnabled) {
+        this.isClusterEnabled = isClusterEnabled;
+    }
+
+    String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    void setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    int getClusterPort() {
+        return clusterPort;
+    }
+
+    void setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+    }
+
+    String getClusterPeers() {
+        return clusterPeers;
+    }
+
+    void setClusterPeers(String clusterPeers) {
+        this.clusterPeers = clusterPeers;
+    }
+
+    long getClusterReserveTimeoutMillis() {
+        return clusterReserveTimeoutMillis;
+    }
+
+    void setClusterReserveTimeoutMillis(long clusterReserveTimeoutMillis) {
+        this.clusterReserveTimeoutMillis = clusterReserveTimeoutMillis;
+    }
+
+    long getClusterReconnectDelayMillis() {
+        return clusterReconnectDelayMillis;
+    }
+
+    void setClusterReconnectDelayMillis(long clusterReconnectDelayMillis) {
+        this.clusterReconnectDelayMillis = clusterReconnectDelayMillis;
+    }
+
+    boolean isSearchEnabled() {
+        return isSearchEnabled;
+    }
+
+    void setSearchEnabled(boolean isSearchEnabled) {
+        this.isSearchEnabled = isSearchEnabled;
+    }
+
+    int getSearchPageSize() {
+        return searchPageSize;
+    }
+
+    void setSearchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
+    long getSearchIndexIntervalMillis() {
+        return searchIndexIntervalMillis;
+    }
+
+    void setSearchIndexIntervalMillis(long searchIndexIntervalMillis) {
+        this.searchIndexIntervalMillis = searchIndexIntervalMillis;
+    }
+
+    int getSearchThreads() {
+        return searchThreads;
+    }
+
+    void setSearchThreads(int searchThreads) {
+        this.searchThreads = searchThreads;
+    }
+
+    boolean isDeflateEnabled() {
+        return isDeflateEnabled;
+    }
+
+    void setDeflateEnabled(boolean isDeflateEnabled) {
+        this.isDeflateEnabled = isDeflateEnabled;
+    }
+
+    long getShutdownDrainTimeoutMillis() {
+        return shutdownDrainTimeoutMillis;
+    }
+
+    void setShutdownDrainTimeoutMillis(long shutdownDrainTimeoutMillis) {
+        this.shutdownDrainTimeoutMillis = shutdownDrainTimeoutMillis;
+    }
+
+    long getShutdownReconnectDelayMillis() {
+        return shutdownReconnectDelayMillis;
+    }
+
+    void setShutdownReconnectDelayMillis(long shutdownReconnectDelayMillis) {
+        this.shutdownReconnectDelayMillis = shutdownReconnectDelayMillis;
+    }
+
+    long getShutdownReconnectSpreadMillis() {
+        return shutdownReconnectSpreadMillis;
+    }
+
+    void setShutdownReconnectSpreadMillis(long shutdownReconnectSpreadMillis) {
+        this.shutdownReconnectSpreadMillis = shutdownReconnectSpreadMillis;
+    }
+
+    RateLimitPolicy getRateLimitPolicy() {
+        return rateLimitPolicy;
+    }
+
+    void setRateLimitPolicy(RateLimitPolicy rateLimitPolicy) {
+        this.rateLimitPolicy = rateLimitPolicy;
+    }
+
+    long getRateLimitMaxDelayMillis() {
+        return rateLimitMaxDelayMillis;
+    }
+
+    void setRateLimitMaxDelayMillis(long rateLimitMaxDelayMillis) {
+        this.rateLimitMaxDelayMillis = rateLimitMaxDelayMillis;
+    }
+
+    int getRateLimitNicknamePerSecond() {
+        return rateLimitNicknamePerSecond;
+    }
+
+    void setRateLimitNicknamePerSecond(int rateLimitNicknamePerSecond) {
+        this.rateLimitNicknamePerSecond = rateLimitNicknamePerSecond;
+    }
+
+    int getRateLimitNicknameBurst() {
+        return rateLimitNicknameBurst;
+    }
+
+    void setRateLimitNicknameBurst(int rateLimitNicknameBurst) {
+        this.rateLimitNicknameBurst = rateLimitNicknameBurst;
+    }
+
+    int getRateLimitAddressPerSecond() {
+        return rateLimitAddressPerSecond;
+    }
+
+    void setRateLimitAddressPerSecond(int rateLimitAddressPerSecond) {
+        this.rateLimitAddressPerSecond = rateLimitAddressPerSecond;
+    }
+
+    int getRateLimitAddressBurst() {
+        return rateLimitAddressBurst;
+    }
+
+    void setRateLimitAddressBurst(int rateLimitAddressBurst) {
+        this.rateLimitAddressBurst = rateLimitAddressBurst;
+    }
+
+    int getRateLimitGlobalPerSecond() {
+        return rateLimitGlobalPerSecond;
+    }
+
+    void setRateLimitGlobalPerSecond(int rateLimitGlobalPerSecond) {
+        this.rateLimitGlobalPerSecond = rateLimitGlobalPerSecond;
+    }
+
+    int getRateLimitGlobalBurst() {
+        return rateLimitGlobalBurst;
+    }
+
+    void setRateLimitGlobalBurst(int rateLimitGlobalBurst) {
+        this.rateLimitGlobalBurst = rateLimitGlobalBurst;
+    }
+}
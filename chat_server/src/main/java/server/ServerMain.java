@@ -0,0 +1,11 @@
+package server;
+
+public class ServerMain {
+
+    public static void main(String[] args) {
+        Server server = new Server(ServerConfig.load());
+        server.startServer();
+        // Drain clients on SIGTERM, so a rolling restart does not make them all reconnect at once
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stopServer, "server-shutdown"));
+    }
+}
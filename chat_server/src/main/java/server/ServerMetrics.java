@@ -0,0 +1,329 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+class ServerMetrics implements ServerMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ServerMetrics.class);
+    private static final String OBJECT_NAME = "chat.server:type=ServerMetrics";
+    private final Server server;
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder chatMessages = new LongAdder();
+    private final LongAdder broadcastDeliveries = new LongAdder();
+    private final LongAdder privateMessages = new LongAdder();
+    private final LongAdder privateMessagesOffline = new LongAdder();
+    private final LongAdder loginsAccepted = new LongAdder();
+    private final LongAdder loginsRejected = new LongAdder();
+    private final LongAdder logouts = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder replayedPackets = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder rateLimitedPackets = new LongAdder();
+    private final LongAdder rateLimitedDelays = new LongAdder();
+    private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram searchLatency = new LatencyHistogram();
+    private ObjectName objectName;
+
+    ServerMetrics(Server server) {
+        this.server = server;
+    }
+
+    void registerMBean() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName(OBJECT_NAME);
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.error("Failed to register {}", OBJECT_NAME, e);
+            objectName = null;
+        }
+    }
+
+    void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.error("Failed to unregister {}", OBJECT_NAME, e);
+        }
+        objectName = null;
+    }
+
+    ConnectionMetrics newConnectionMetrics() {
+        return new ConnectionMetrics(this);
+    }
+
+    void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    void packetReceived() {
+        packetsIn.increment();
+    }
+
+    void bytesReceived(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void packetsSent(int packets, long bytes) {
+        packetsOut.add(packets);
+        bytesOut.add(bytes);
+    }
+
+    void broadcast(int recipients, long nanos) {
+        chatMessages.increment();
+        broadcastDeliveries.add(recipients);
+        broadcastLatency.record(nanos);
+    }
+
+    void privateMessage(boolean isDelivered) {
+        if (isDelivered) {
+            privateMessages.increment();
+        } else {
+            privateMessagesOffline.increment();
+        }
+    }
+
+    void loginAccepted(long nanos) {
+        loginsAccepted.increment();
+        loginLatency.record(nanos);
+    }
+
+    void loginRejected() {
+        loginsRejected.increment();
+    }
+
+    void loggedOut() {
+        logouts.increment();
+    }
+
+    void replayed(int packets) {
+        replays.increment();
+        replayedPackets.add(packets);
+    }
+
+    void searched(long nanos) {
+        searches.increment();
+        searchLatency.record(nanos);
+    }
+
+    void rateLimited(boolean isDelayed) {
+        if (isDelayed) {
+            rateLimitedDelays.increment();
+        } else {
+            rateLimitedPackets.increment();
+        }
+    }
+
+    LatencyHistogram getBroadcastLatency() {
+        return broadcastLatency;
+    }
+
+    LatencyHistogram getLoginLatency() {
+        return loginLatency;
+    }
+
+    LatencyHistogram getSearchLatency() {
+        return searchLatency;
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getConnectionsOpen() {
+        return connectionsAccepted.sum() - connectionsClosed.sum();
+    }
+
+    @Override
+    public long getUsersOnline() {
+        return server.getConnectionsMap().size();
+    }
+
+    @Override
+    public long getRooms() {
+        return server.getRooms().size();
+    }
+
+    @Override
+    public long getClusterNodes() {
+        Cluster cluster = server.getCluster();
+        return cluster != null ? cluster.getNodeCount() : 0;
+    }
+
+    @Override
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getChatMessages() {
+        return chatMessages.sum();
+    }
+
+    @Override
+    public long getBroadcastDeliveries() {
+        return broadcastDeliveries.sum();
+    }
+
+    @Override
+    public long getPrivateMessages() {
+        return privateMessages.sum();
+    }
+
+    @Override
+    public long getPrivateMessagesOffline() {
+        return privateMessagesOffline.sum();
+    }
+
+    @Override
+    public long getLoginsAccepted() {
+        return loginsAccepted.sum();
+    }
+
+    @Override
+    public long getLoginsRejected() {
+        return loginsRejected.sum();
+    }
+
+    @Override
+    public long getLogouts() {
+        return logouts.sum();
+    }
+
+    @Override
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    @Override
+    public long getReplayedPackets() {
+        return replayedPackets.sum();
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+        return server.getOutboundQueueDepth();
+    }
+
+    @Override
+    public long getDroppedPackets() {
+        return server.getOutboundQueueStats().getDroppedPackets();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return server.getOutboundQueueStats().getSlowConsumerDisconnects();
+    }
+
+    @Override
+    public long getBroadcastLatencyP50Micros() {
+        return broadcastLatency.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getBroadcastLatencyP99Micros() {
+        return broadcastLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getBroadcastLatencyMaxMicros() {
+        return broadcastLatency.getMaxMicros();
+    }
+
+    @Override
+    public long getLoginLatencyP50Micros() {
+        return loginLatency.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getLoginLatencyP99Micros() {
+        return loginLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getLoginLatencyMaxMicros() {
+        return loginLatency.getMaxMicros();
+    }
+
+    @Override
+    public long getMessageLogLastSequence() {
+        MessageLog messageLog = server.getMessageLog();
+        return messageLog == null ? 0 : messageLog.getLastSequence();
+    }
+
+    @Override
+    public long getMessageLogQueueDepth() {
+        MessageLog messageLog = server.getMessageLog();
+        return messageLog == null ? 0 : messageLog.getQueueDepth();
+    }
+
+    @Override
+    public long getMessageLogDroppedRecords() {
+        MessageLog messageLog = server.getMessageLog();
+        return messageLog == null ? 0 : messageLog.getDroppedRecords();
+    }
+
+    @Override
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    @Override
+    public long getSearchIndexLastSequence() {
+        SearchIndex searchIndex = server.getSearchIndex();
+        return searchIndex == null ? 0 : searchIndex.getLastSequence();
+    }
+
+    @Override
+    public long getSearchIndexTokens() {
+        SearchIndex searchIndex = server.getSearchIndex();
+        return searchIndex == null ? 0 : searchIndex.getTokens();
+    }
+
+    @Override
+    public long getRateLimitedPackets() {
+        return rateLimitedPackets.sum();
+    }
+
+    @Override
+    public long getRateLimitedDelays() {
+        return rateLimitedDelays.sum();
+    }
+}
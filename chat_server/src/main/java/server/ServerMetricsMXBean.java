@@ -0,0 +1,74 @@
+package server;
+
+public interface ServerMetricsMXBean {
+
+    long getConnectionsAccepted();
+
+    long getConnectionsOpen();
+
+    long getUsersOnline();
+
+    long getRooms();
+
+    long getClusterNodes();
+
+    long getPacketsIn();
+
+    long getBytesIn();
+
+    long getPacketsOut();
+
+    long getBytesOut();
+
+    long getChatMessages();
+
+    long getBroadcastDeliveries();
+
+    long getPrivateMessages();
+
+    long getPrivateMessagesOffline();
+
+    long getLoginsAccepted();
+
+    long getLoginsRejected();
+
+    long getLogouts();
+
+    long getReplays();
+
+    long getReplayedPackets();
+
+    long getOutboundQueueDepth();
+
+    long getDroppedPackets();
+
+    long getSlowConsumerDisconnects();
+
+    long getBroadcastLatencyP50Micros();
+
+    long getBroadcastLatencyP99Micros();
+
+    long getBroadcastLatencyMaxMicros();
+
+    long getLoginLatencyP50Micros();
+
+    long getLoginLatencyP99Micros();
+
+    long getLoginLatencyMaxMicros();
+
+    long getMessageLogLastSequence();
+
+    long getMessageLogQueueDepth();
+
+    long getMessageLogDroppedRecords();
+
+    long getSearches();
+
+    long getSearchIndexLastSequence();
+
+    long getSearchIndexTokens();
+
+    long getRateLimitedPackets();
+
+    long getRateLimitedDelays();
+}
@@ -0,0 +1,6 @@
+package server;
+
+enum ServerMode {
+    BLOCKING,
+    NIO
+}
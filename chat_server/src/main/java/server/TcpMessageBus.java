@@ -0,0 +1,302 @@
+package server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import packet.Packet;
+import packet.PacketDecoder;
+import packet.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Message bus over plain TCP. Every node dials each configured peer and only writes to the links it dialed,
+ * the connections it accepts are only read from. Frames are a message type byte and a length prefixed binary packet.
+ */
+class TcpMessageBus implements MessageBus {
+
+    private static final Logger log = LoggerFactory.getLogger(TcpMessageBus.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int LINK_QUEUE_CAPACITY = 64 * 1024;
+    private static final byte[] CLOSE_LINK = new byte[0];
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+    private final String nodeId;
+    private final int port;
+    private final List<InetSocketAddress> peerAddresses;
+    private final long reconnectDelayMillis;
+    private final List<PeerLink> links;
+    private final ConcurrentMap<String, PeerLink> livePeers;
+    private volatile Listener listener;
+    private volatile boolean isRunning;
+    private ServerSocket serverSocket;
+
+    TcpMessageBus(ServerConfig config) {
+        nodeId = config.getClusterNodeId();
+        port = config.getClusterPort();
+        peerAddresses = parsePeers(config.getClusterPeers());
+        reconnectDelayMillis = config.getClusterReconnectDelayMillis();
+        links = new ArrayList<>();
+        livePeers = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        serverSocket = new ServerSocket(port);
+        isRunning = true;
+        log.info("Cluster node {} listening on port {}", nodeId, port);
+        Thread acceptor = new Thread(this::acceptPeers, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (InetSocketAddress address : peerAddresses) {
+            PeerLink link = new PeerLink(address);
+            links.add(link);
+            Thread thread = new Thread(link, "cluster-link-" + address);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        isRunning = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            log.error("Failed to close cluster socket.", e);
+        }
+        for (PeerLink link : links) {
+            link.disconnect();
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<String> getNodes() {
+        List<String> nodes = new ArrayList<>(livePeers.keySet());
+        nodes.add(nodeId);
+        Collections.sort(nodes);
+        return nodes;
+    }
+
+    @Override
+    public void publish(MessageType type, Packet packet) {
+        if (livePeers.isEmpty()) {
+            return;
+        }
+        byte[] frame = encode(type, packet);
+        for (PeerLink link : livePeers.values()) {
+            link.offer(frame);
+        }
+    }
+
+    @Override
+    public void send(String nodeId, MessageType type, Packet packet) {
+        PeerLink link = livePeers.get(nodeId);
+        if (link != null) {
+            link.offer(encode(type, packet));
+        }
+    }
+
+    private void acceptPeers() {
+        while (isRunning) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readPeer(socket), "cluster-reader-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (isRunning) {
+                    log.error("Failed to accept cluster peer on port {}", port, e);
+                }
+            }
+        }
+    }
+
+    private void readPeer(Socket socket) {
+        String peerId = null;
+        try (Socket peerSocket = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(peerSocket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(peerSocket.getOutputStream());
+            peerId = in.readUTF();
+            out.writeUTF(nodeId);
+            out.flush();
+            PacketDecoder decoder = new PacketDecoder();
+            decoder.setWireFormat(WireFormat.BINARY);
+            while (isRunning) {
+                int type = in.readUnsignedByte();
+                int length = in.readInt();
+                if (length < 0 || length > decoder.getMaxFrameSize()) {
+                    log.warn("Cluster peer {} sent a frame of {} bytes, disconnecting", peerId, length);
+                    break;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                Packet packet = decoder.decode(ByteBuffer.wrap(frame));
+                if (type < MESSAGE_TYPES.length && packet != null) {
+                    onMessage(peerId, MESSAGE_TYPES[type], packet);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Cluster peer {} disconnected", peerId, e);
+        }
+        // The peer's end of our own link may not have noticed yet
+        PeerLink link = peerId != null ? livePeers.get(peerId) : null;
+        if (link != null) {
+            link.disconnect();
+        }
+    }
+
+    /**
+     * A message the listener fails on is lost, the peer stays connected.
+     */
+    private void onMessage(String peerId, MessageType type, Packet packet) {
+        try {
+            listener.onMessage(peerId, type, packet);
+        } catch (RuntimeException e) {
+            log.error("Failed to handle {} message from cluster peer {}", type, peerId, e);
+        }
+    }
+
+    private static byte[] encode(MessageType type, Packet packet) {
+        byte[] body = WireFormat.BINARY.encode(packet);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.length + 5);
+        DataOutputStream out = new DataOutputStream(frame);
+        try {
+            out.writeByte(type.ordinal());
+            out.writeInt(body.length);
+            out.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return frame.toByteArray();
+    }
+
+    private static List<InetSocketAddress> parsePeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        if (peers == null) {
+            return addresses;
+        }
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            int separator = peer.lastIndexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            addresses.add(new InetSocketAddress(peer.substring(0, separator),
+                    Integer.parseInt(peer.substring(separator + 1))));
+        }
+        return addresses;
+    }
+
+    /**
+     * Outgoing connection to one peer, redialed until the bus is closed.
+     */
+    private final class PeerLink implements Runnable {
+
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue;
+        private volatile Socket socket;
+
+        PeerLink(InetSocketAddress address) {
+            this.address = address;
+            queue = new ArrayBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        }
+
+        void offer(byte[] frame) {
+            if (!queue.offer(frame)) {
+                log.warn("Cluster link to {} is full, message dropped", address);
+            }
+        }
+
+        void disconnect() {
+            queue.clear();
+            queue.offer(CLOSE_LINK);
+            Socket currentSocket = socket;
+            if (currentSocket != null) {
+                try {
+                    currentSocket.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close cluster link to {}", address, e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                String peerId = null;
+                try (Socket newSocket = new Socket()) {
+                    socket = newSocket;
+                    newSocket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    newSocket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+                    DataInputStream in = new DataInputStream(newSocket.getInputStream());
+                    out.writeUTF(nodeId);
+                    out.flush();
+                    peerId = in.readUTF();
+                    if (peerId.equals(nodeId)) {
+                        log.info("Cluster peer {} is this node, not linking to it", address);
+                        return;
+                    }
+                    queue.clear();
+                    livePeers.put(peerId, this);
+                    log.info("Cluster node {} at {} is up", peerId, address);
+                    listener.onNodeUp(peerId);
+                    writeFrames(out);
+                } catch (IOException e) {
+                    log.debug("Cluster link to {} failed", address, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    socket = null;
+                    if (peerId != null && livePeers.remove(peerId, this)) {
+                        log.info("Cluster node {} at {} is down", peerId, address);
+                        listener.onNodeDown(peerId);
+                    }
+                }
+                try {
+                    Thread.sleep(reconnectDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void writeFrames(DataOutputStream out) throws IOException, InterruptedException {
+            while (isRunning) {
+                byte[] frame = queue.take();
+                do {
+                    if (frame == CLOSE_LINK) {
+                        throw new IOException("Cluster link to " + address + " closed");
+                    }
+                    out.write(frame);
+                } while ((frame = queue.poll()) != null);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single timestamp, the time at which it will be full again (the generic cell rate algorithm).
+ * Taking a token moves that time one refill interval later, and a token is refused while it would then be more than
+ * the whole burst ahead. Refilling needs no thread, and taking a token is one compare-and-set.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(double tokensPerSecond, int burst) {
+        intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        burstNanos = intervalNanos * Math.max(1, burst);
+        fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise the nanos until one is available
+     */
+    long tryAcquire(long nowNanos) {
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - nowNanos > 0 ? current : nowNanos) + intervalNanos;
+            long ahead = next - nowNanos;
+            if (ahead > burstNanos) {
+                return ahead - burstNanos;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire}. A bucket refilled meanwhile stays full, it never holds more
+     * than the burst.
+     */
+    void release() {
+        fullAt.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * @return true if the bucket is full, so forgetting it loses nothing
+     */
+    boolean isFull(long nowNanos) {
+        return fullAt.get() - nowNanos <= 0;
+    }
+}
@@ -0,0 +1,21 @@
+package server;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Java 8 variant. The multi-release jar replaces this class with the one from src/main/java21
+ * when the server runs on a JDK with virtual threads.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    static ExecutorService newExecutor(String namePrefix) {
+        throw new UnsupportedOperationException("Virtual threads require JDK 21+");
+    }
+}
@@ -0,0 +1,146 @@
+package server;
+
+import org.junit.Test;
+import packet.JsonPacketCodec;
+import packet.MalformedPacketException;
+import packet.Packet;
+import packet.PacketType;
+import packet.WireFormat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Logs in thousands of connections at once, several of them racing for each nickname.
+ */
+public class LoginStressTest {
+
+    // The window for a race is short, each run starts over on a new server
+    private static final int RUNS = 5;
+    private static final int THREADS = 64;
+    private static final int CONNECTIONS = 8192;
+    // Every thread logs in as the same nickname at about the same time, then moves on to the next one
+    private static final int CONTENDERS = THREADS;
+    private static final int NICKNAMES = CONNECTIONS / CONTENDERS;
+
+    @Test
+    public void reservesEachNicknameOnce() throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            loginConcurrently();
+        }
+    }
+
+    private void loginConcurrently() throws Exception {
+        Server server = new Server(new ServerConfig());
+        List<RecordingConnection> connections = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            connections.add(new RecordingConnection(server));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> logins = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int first = thread;
+            logins.add(executor.submit(() -> {
+                start.await();
+                for (int i = first; i < CONNECTIONS; i += THREADS) {
+                    Packet login = new Packet();
+                    login.setType(PacketType.LOGIN);
+                    login.setNickname("user" + i / CONTENDERS);
+                    server.getPacketHandler().handlePacket(connections.get(i), login);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> login : logins) {
+            login.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        Map<String, Connection> connectionsMap = server.getConnectionsMap();
+        assertEquals(NICKNAMES, connectionsMap.size());
+        for (Map.Entry<String, Connection> entry : connectionsMap.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().getNickname());
+        }
+        Set<String> accepted = new HashSet<>();
+        for (RecordingConnection connection : connections) {
+            if (connection.response == PacketType.LOGIN) {
+                assertTrue("Nickname accepted twice", accepted.add(connection.getNickname()));
+                assertSame(connection, connectionsMap.get(connection.getNickname()));
+            } else {
+                assertEquals(PacketType.LOGIN_REJECTED, connection.response);
+                assertNull(connection.getNickname());
+            }
+        }
+        assertEquals(connectionsMap.keySet(), accepted);
+        assertEquals(NICKNAMES, new HashSet<>(server.getPresence().getUsers()).size());
+    }
+
+    private static class RecordingConnection extends AbstractConnection {
+
+        private final OutboundQueue outboundQueue;
+        private volatile PacketType response;
+
+        RecordingConnection(Server server) {
+            super(server.getMetrics());
+            outboundQueue = server.newOutboundQueue();
+        }
+
+        @Override
+        public void completeHandshake(EncodedPacket response, WireFormat wireFormat, ReplayCursor replay) {
+            byte[] bytes = response.bytes(WireFormat.JSON);
+            try {
+                this.response = JsonPacketCodec.decode(bytes, 0, bytes.length - 1).getType();
+            } catch (MalformedPacketException e) {
+                throw new AssertionError(e);
+            }
+            super.completeHandshake(response, wireFormat, replay);
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void setWireFormat(WireFormat wireFormat) {
+        }
+
+        @Override
+        void enqueue(EncodedPacket packet, boolean mayBlock) {
+        }
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return outboundQueue;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}